@@ -0,0 +1,165 @@
+package io.lazydog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * VideoDownloader.downloadWithProgress 对本地合成数据服务器的端到端基准。
+ * <p>
+ * 每次调用下载一个完整文件，吞吐 = size / 平均耗时。分配速率用 -prof gc 看 (gc.alloc.rate.norm 即每次下载分配的字节)；
+ * 每个迭代结束时打印进程 CPU 时间折算的 "CPU ms/GB"，其中包含同进程内服务器线程的开销，只适合横向比较。
+ * <p>
+ * 用法: java -jar target/benchmarks.jar DownloadBenchmark -prof gc -p sizeMb=64 -p bufferSize=65536,262144
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DownloadBenchmark {
+
+    @Param({"1", "16", "128"})
+    public int sizeMb;
+
+    @Param({"4096", "65536", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"1", "4"})
+    public int segments;
+
+    @Param({"apache"})
+    public String engine;
+
+    @Param({"true"})
+    public boolean rangeSupported;
+
+    @Param({"0"})
+    public long latencyMillis;
+
+    /**
+     * silent: 什么都不做；percent: 只用百分比；snapshot: 每次回调都格式化速度和剩余时间 (界面的做法)
+     */
+    @Param({"silent", "percent", "snapshot"})
+    public String callback;
+
+    private SyntheticHttpServer server;
+    private TransferEngine transferEngine;
+    private VideoDownloader downloader;
+    private ProgressCallback progressCallback;
+    private String url;
+    private File outputFile;
+
+    private long iterationCpuNanos;
+    private long iterationBytes;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws IOException {
+        server = new SyntheticHttpServer(rangeSupported, latencyMillis);
+        url = server.urlFor(sizeMb * 1024L * 1024L);
+        transferEngine = engine.equals("jdk")
+                ? new JdkTransferEngine()
+                : ApacheTransferEngine.create(segments, bufferSize);
+        downloader = new VideoDownloader(transferEngine, segments, bufferSize);
+        progressCallback = newCallback(callback, blackhole);
+        outputFile = File.createTempFile("benchmark", ".bin");
+        outputFile.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        transferEngine.close();
+        server.close();
+        outputFile.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        iterationCpuNanos = processCpuNanos();
+        iterationBytes = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long cpuNanos = processCpuNanos() - iterationCpuNanos;
+        if (iterationBytes > 0 && cpuNanos > 0) {
+            double gigabytes = iterationBytes / 1024.0 / 1024.0 / 1024.0;
+            System.out.printf("%n CPU %.0f ms/GB%n", cpuNanos / 1e6 / gigabytes);
+        }
+    }
+
+    @Benchmark
+    public DownloadResult download() throws IOException {
+        DownloadResult result = downloader.downloadWithProgress(url, outputFile, progressCallback);
+        iterationBytes += result.getSize();
+        return result;
+    }
+
+    private static ProgressCallback newCallback(String kind, Blackhole blackhole) {
+        return switch (kind) {
+            case "silent" -> new ProgressCallback() {
+                @Override
+                public void update(int progress) {
+                }
+
+                @Override
+                public void update(ProgressSnapshot snapshot) {
+                }
+
+                @Override
+                public void log(String message) {
+                }
+            };
+            case "percent" -> new ProgressCallback() {
+                @Override
+                public void update(int progress) {
+                    blackhole.consume(progress);
+                }
+
+                @Override
+                public void log(String message) {
+                    blackhole.consume(message);
+                }
+            };
+            case "snapshot" -> new ProgressCallback() {
+                @Override
+                public void update(int progress) {
+                    blackhole.consume(progress);
+                }
+
+                @Override
+                public void update(ProgressSnapshot snapshot) {
+                    blackhole.consume(snapshot.toString());
+                }
+
+                @Override
+                public void log(String message) {
+                    blackhole.consume(message);
+                }
+            };
+            default -> throw new IllegalArgumentException("未知的回调: " + kind);
+        };
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
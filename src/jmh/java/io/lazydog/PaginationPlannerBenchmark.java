@@ -0,0 +1,90 @@
+package io.lazydog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 规划一页的开销：几千个平台、合计数据量超过 int 范围，随机页码；
+ * 分别用不可变的前缀和 (PaginationPlanner) 和可更新的树状数组 (PlatformCountProvider)。
+ * 用 -prof gc 运行可以看到 forEachTask 最多分配一个 PagePlan，通常被逃逸分析消除。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaginationPlannerBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"4", "5000"})
+    public int platformCount;
+
+    private PaginationPlanner planner;
+    private PlatformCountProvider provider;
+    private long pages;
+    private long pageNum;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+        String[] platforms = new String[platformCount];
+        long[] counts = new long[platformCount];
+        for (int i = 0; i < platformCount; i++) {
+            platforms[i] = "P" + i;
+            // 少数平台为空，其余在 0 到 2^32 之间
+            counts[i] = i % 10 == 0 ? 0 : (random.nextLong() & 0xFFFFFFFFL);
+        }
+        planner = new PaginationPlanner(platforms, counts, PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE);
+        provider = new PlatformCountProvider(platforms, counts::clone, TimeUnit.HOURS.toMillis(1),
+                PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE);
+        pages = (planner.getTotal() + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private long nextPage() {
+        // 简单的线性同余序列，避免 Random 本身的开销
+        pageNum = pageNum * 6364136223846793005L + 1442695040888963407L;
+        return Math.floorMod(pageNum, pages) + 1;
+    }
+
+    @Benchmark
+    public void forEachTask(Blackhole blackhole) {
+        PaginationPlanner.PagePlan plan = planner.plan(nextPage(), PAGE_SIZE);
+        plan.forEachTask((platformIndex, platformPage, startOffset, count, targetOffset) -> {
+            blackhole.consume(platformPage);
+            blackhole.consume(count);
+        });
+    }
+
+    /**
+     * 同样的规划，前缀和来自树状数组，走乐观读
+     */
+    @Benchmark
+    public void providerForEachTask(Blackhole blackhole) {
+        PaginationPlanner.PagePlan plan = provider.plan(nextPage(), PAGE_SIZE);
+        plan.forEachTask((platformIndex, platformPage, startOffset, count, targetOffset) -> {
+            blackhole.consume(platformPage);
+            blackhole.consume(count);
+        });
+    }
+
+    @Benchmark
+    public Object tasks() {
+        return planner.plan(nextPage(), PAGE_SIZE).tasks();
+    }
+}
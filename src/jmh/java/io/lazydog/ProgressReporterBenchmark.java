@@ -0,0 +1,79 @@
+package io.lazydog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进度热路径的开销：每次读写之后都会调用 ProgressReporter.add，分段下载时多个线程同时调用。
+ * 对照组是每次都直接回调百分比的旧做法。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgressReporterBenchmark {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private ProgressReporter reporter;
+    private ProgressCallback callback;
+    private long downloaded;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        callback = new ProgressCallback() {
+            @Override
+            public void update(int progress) {
+                blackhole.consume(progress);
+            }
+
+            @Override
+            public void update(ProgressSnapshot snapshot) {
+                blackhole.consume(snapshot.toString());
+            }
+
+            @Override
+            public void log(String message) {
+            }
+        };
+        // 总大小足够大，测量期间不会走到 100%
+        reporter = new ProgressReporter(callback, Long.MAX_VALUE / 2, 0);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void coalesced() {
+        reporter.add(CHUNK);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void coalescedSingleThread() {
+        reporter.add(CHUNK);
+    }
+
+    /**
+     * 原来的做法：每读一块就算一次百分比并回调。这里只测到回调为止，
+     * 界面里每次回调还要排一个 EDT 任务，真正的开销在那之后
+     */
+    @Benchmark
+    @Threads(1)
+    public void perChunkCallback() {
+        downloaded += CHUNK;
+        callback.update((int) (downloaded * 100 / (Long.MAX_VALUE / 2)));
+    }
+}
@@ -0,0 +1,425 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 按主机自适应调整并发传输数 (AIMD)。每个主机有一个并发上限，超出上限的请求在本地排队，
+ * 有请求结束或上限提高时按提交顺序发出；HEAD 请求不排队。
+ * <p>
+ * 后台线程每个周期检查一次各主机的信号：
+ * <ul>
+ *     <li>出现 429/503 或连接错误：上限减半 (乘性减少)；</li>
+ *     <li>首字节时间超过基线的两倍：上限减少四分之一；</li>
+ *     <li>有请求在排队 (需求超过上限)：上限加一 (加性增加)。加一之后总吞吐没有提高 5%，
+ *     说明瓶颈不在并发数，撤回这次增加并在几个周期内不再尝试。</li>
+ * </ul>
+ * 关闭时一并关闭被包装的引擎。
+ */
+final class AdaptiveTransferEngine implements TransferEngine {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "concurrency-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static final long DEFAULT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 首字节时间超过基线的这个倍数视为服务器开始排队
+     */
+    private static final double LATENCY_FACTOR = 2.0;
+
+    /**
+     * 加一之后吞吐至少要提高这个比例才算有效
+     */
+    private static final double MIN_GAIN = 0.05;
+
+    /**
+     * 增加无效后暂停尝试的周期数
+     */
+    private static final int HOLD_TICKS = 5;
+
+    private final TransferEngine delegate;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> ticker;
+
+    /**
+     * @param initialLimit 每个主机开始时的并发传输数
+     * @param maxLimit     每个主机并发传输数的上限，不应超过连接池中每个主机的连接数
+     */
+    AdaptiveTransferEngine(TransferEngine delegate, int initialLimit, int maxLimit) {
+        this(delegate, initialLimit, maxLimit, DEFAULT_INTERVAL_NANOS);
+    }
+
+    AdaptiveTransferEngine(TransferEngine delegate, int initialLimit, int maxLimit, long intervalNanos) {
+        if (initialLimit < 1 || maxLimit < initialLimit || intervalNanos <= 0) {
+            throw new IllegalArgumentException("Invalid concurrency limits");
+        }
+        this.delegate = delegate;
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.ticker = SCHEDULER.scheduleAtFixedRate(this::adjust, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public RemoteFileInfo revalidate(String url, String etag, String lastModified) throws IOException {
+        return delegate.revalidate(url, etag, lastModified);
+    }
+
+    @Override
+    public CompletableFuture<Long> transfer(TransferRequest request, TransferListener listener) {
+        Host host = host(VideoDownloader.hostOf(request.getUrl()));
+        return host.submit(() -> delegate.transfer(request, new HostListener(host, listener)), null);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchBytes(URI uri) {
+        Host host = host(VideoDownloader.hostOf(uri.toString()));
+        return host.submit(() -> delegate.fetchBytes(uri), data -> host.bytes.add(data.length));
+    }
+
+    /**
+     * @return 每个用到过的主机当前的并发上限、进行中和排队的请求数
+     */
+    List<DownloadManager.HostStatus> getHostStatus() {
+        List<DownloadManager.HostStatus> status = new ArrayList<>();
+        for (Host host : hosts.values()) {
+            host.lock.lock();
+            try {
+                status.add(new DownloadManager.HostStatus(host.name, host.limit, host.active, host.queue.size(),
+                        (long) host.throughput));
+            } finally {
+                host.lock.unlock();
+            }
+        }
+        status.sort((a, b) -> a.getHost().compareTo(b.getHost()));
+        return status;
+    }
+
+    /**
+     * @return 该主机当前的并发上限，没有用到过的主机返回初始值
+     */
+    int getLimit(String host) {
+        Host state = hosts.get(host.toLowerCase());
+        return state == null ? initialLimit : state.limit;
+    }
+
+    private Host host(String name) {
+        return hosts.computeIfAbsent(name, key -> {
+            Host host = new Host(key);
+            DownloadMetrics.registry().gauge("host." + (key.isEmpty() ? "unknown" : key) + ".concurrency",
+                    () -> host.limit);
+            return host;
+        });
+    }
+
+    private void adjust() {
+        long now = System.nanoTime();
+        for (Host host : hosts.values()) {
+            try {
+                host.adjust(now);
+            } catch (RuntimeException ignored) {
+                // 出错不能让调度线程退出
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ticker.cancel(false);
+        delegate.close();
+    }
+
+    /**
+     * 错误是否说明服务器或链路已经吃不消。取消、校验失败、文件变化、404 之类与并发数无关
+     */
+    static boolean isCongestion(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof HttpStatusException) {
+            return ((HttpStatusException) error).isOverload();
+        }
+        return error instanceof IOException
+                && !(error instanceof InterruptedIOException)
+                && !(error instanceof IntegrityException)
+                && !(error instanceof ResourceChangedException);
+    }
+
+    /**
+     * 一个主机的并发状态。lock 只保护计数和队列，不在锁里发请求
+     */
+    private final class Host {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongAdder bytes = new LongAdder();
+        private volatile int limit = initialLimit;
+        private volatile double throughput;
+        // 以下字段在持有 lock 时读写
+        private final ArrayDeque<Pending<?>> queue = new ArrayDeque<>();
+        private int active;
+        private boolean waited;
+        private int congestion;
+        private long ttfbSum;
+        private int ttfbCount;
+        // 以下字段只在调度线程上访问
+        private long lastBytes;
+        private long lastTickNanos = System.nanoTime();
+        private double baselineTtfb;
+        private boolean increased;
+        private double throughputBeforeIncrease;
+        private int hold;
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param onSuccess 请求成功时在结果交给调用方之前调用，可以为 null
+         */
+        <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call, Consumer<T> onSuccess) {
+            Pending<T> pending = new Pending<>(this, call, onSuccess);
+            boolean start;
+            lock.lock();
+            try {
+                start = active < limit;
+                if (start) {
+                    active++;
+                } else {
+                    queue.add(pending);
+                    waited = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            pending.result.whenComplete((value, error) -> {
+                if (pending.result.isCancelled()) {
+                    pending.cancel();
+                }
+            });
+            if (start) {
+                pending.start();
+            }
+            return pending.result;
+        }
+
+        /**
+         * 一个请求结束，名额交给排队的请求
+         */
+        void finished(Throwable error) {
+            lock.lock();
+            try {
+                active--;
+                if (error != null && isCongestion(error)) {
+                    congestion++;
+                }
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        void ttfb(long nanos) {
+            lock.lock();
+            try {
+                ttfbSum += nanos;
+                ttfbCount++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean dequeue(Pending<?> pending) {
+            lock.lock();
+            try {
+                return queue.remove(pending);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 在名额范围内发出排队的请求，发请求放在锁外
+         */
+        void drain() {
+            List<Pending<?>> ready = new ArrayList<>();
+            lock.lock();
+            try {
+                while (active < limit && !queue.isEmpty()) {
+                    ready.add(queue.poll());
+                    active++;
+                }
+            } finally {
+                lock.unlock();
+            }
+            ready.forEach(Pending::start);
+        }
+
+        void adjust(long now) {
+            long total = bytes.sum();
+            long elapsed = now - lastTickNanos;
+            double current = elapsed > 0 ? (total - lastBytes) * 1e9 / elapsed : 0;
+            lastBytes = total;
+            lastTickNanos = now;
+            throughput = current;
+
+            int signals;
+            double ttfb;
+            boolean demand;
+            lock.lock();
+            try {
+                signals = congestion;
+                congestion = 0;
+                ttfb = ttfbCount == 0 ? 0 : (double) ttfbSum / ttfbCount;
+                ttfbSum = 0;
+                ttfbCount = 0;
+                demand = waited || !queue.isEmpty();
+                waited = false;
+            } finally {
+                lock.unlock();
+            }
+
+            int old = limit;
+            int next = old;
+            if (signals > 0) {
+                next = Math.max(1, old / 2);
+            } else if (ttfb > 0 && baselineTtfb > 0 && ttfb > baselineTtfb * LATENCY_FACTOR) {
+                next = Math.max(1, old - Math.max(1, old / 4));
+            } else if (demand) {
+                if (increased && current < throughputBeforeIncrease * (1 + MIN_GAIN)) {
+                    next = Math.max(1, old - 1);
+                    hold = HOLD_TICKS;
+                } else if (hold > 0) {
+                    hold--;
+                } else if (old < maxLimit) {
+                    throughputBeforeIncrease = current;
+                    next = old + 1;
+                }
+            }
+            increased = next > old;
+            if (ttfb > 0) {
+                // 基线取见过的最小首字节时间，并缓慢上浮，服务器整体变慢后不会一直判为拥塞
+                baselineTtfb = baselineTtfb == 0 ? ttfb : Math.min(ttfb, baselineTtfb * 1.02);
+            }
+            if (next != old) {
+                limit = next;
+                if (next > old) {
+                    drain();
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个请求：排队时只有 result，发出后 inner 是引擎返回的 future
+     */
+    private static final class Pending<T> {
+        private final Host host;
+        private final Supplier<CompletableFuture<T>> call;
+        private final Consumer<T> onSuccess;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile CompletableFuture<T> inner;
+
+        Pending(Host host, Supplier<CompletableFuture<T>> call, Consumer<T> onSuccess) {
+            this.host = host;
+            this.call = call;
+            this.onSuccess = onSuccess;
+        }
+
+        void start() {
+            CompletableFuture<T> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                host.finished(null);
+                result.completeExceptionally(e);
+                return;
+            }
+            inner = future;
+            future.whenComplete((value, error) -> {
+                if (error == null && onSuccess != null) {
+                    onSuccess.accept(value);
+                }
+                host.finished(error instanceof CancellationException ? null : error);
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            });
+            // 发出的同时调用方可能已经取消
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        }
+
+        void cancel() {
+            if (host.dequeue(this)) {
+                return;
+            }
+            CompletableFuture<T> future = inner;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 记录首字节时间和收到的字节数
+     */
+    private static final class HostListener implements TransferListener {
+        private final Host host;
+        private final TransferListener delegate;
+        private volatile long startNanos;
+
+        HostListener(Host host, TransferListener delegate) {
+            this.host = host;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onStart() {
+            startNanos = System.nanoTime();
+            delegate.onStart();
+        }
+
+        @Override
+        public void onResponse(long contentLength) throws IOException {
+            host.ttfb(System.nanoTime() - startNanos);
+            delegate.onResponse(contentLength);
+        }
+
+        @Override
+        public void onData(long position, ByteBuffer data) {
+            delegate.onData(position, data);
+        }
+
+        @Override
+        public void onWritten(long position, int bytes) throws IOException {
+            host.bytes.add(bytes);
+            delegate.onWritten(position, bytes);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package io.lazydog;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基于 HttpClient 4.x 的阻塞传输引擎：每个传输占用一个虚拟线程和一条连接
+ */
+class ApacheTransferEngine implements TransferEngine {
+
+    private final CloseableHttpClient client;
+    private final boolean ownsClient;
+    private final int bufferSize;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param client     共享的 HTTP 客户端，由调用方负责关闭
+     * @param bufferSize 每个传输的读写缓冲区大小
+     */
+    ApacheTransferEngine(CloseableHttpClient client, int bufferSize) {
+        this(client, false, bufferSize);
+    }
+
+    private ApacheTransferEngine(CloseableHttpClient client, boolean ownsClient, int bufferSize) {
+        this.client = client;
+        this.ownsClient = ownsClient;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * 创建一个自带客户端的引擎，关闭引擎时一并关闭客户端
+     * @param maxConnections 连接池大小 (默认每个路由只允许 2 个连接，分段下载需要放宽)
+     */
+    static ApacheTransferEngine create(int maxConnections, int bufferSize) {
+        PoolingHttpClientConnectionManager connectionManager = newConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .build();
+        return wrap(client, bufferSize);
+    }
+
+    /**
+     * 带计时的连接池：DNS 解析和建立连接 (含 TLS 握手) 的耗时、新建连接数记入 {@link DownloadMetrics}
+     */
+    static PoolingHttpClientConnectionManager newConnectionManager() {
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+                .register("https", new TimedLayeredSocketFactory(SSLConnectionSocketFactory.getSocketFactory()))
+                .build();
+        return new PoolingHttpClientConnectionManager(registry, new TimedDnsResolver());
+    }
+
+    /**
+     * 接管一个已经配置好的客户端，关闭引擎时一并关闭客户端
+     */
+    static ApacheTransferEngine wrap(CloseableHttpClient client, int bufferSize) {
+        return new ApacheTransferEngine(client, true, bufferSize);
+    }
+
+    @Override
+    public RemoteFileInfo revalidate(String url, String etag, String lastModified) throws IOException {
+        HttpHead request = new HttpHead(url);
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.setHeader("If-Modified-Since", lastModified);
+        }
+        try (CloseableHttpResponse response = client.execute(request)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_MODIFIED) {
+                return null;
+            }
+            if (status != HttpStatus.SC_OK) {
+                return new RemoteFileInfo(-1, false, null, null, null);
+            }
+            return RemoteFileInfo.fromHeaders(name -> {
+                Header header = response.getFirstHeader(name);
+                return header == null ? null : header.getValue();
+            });
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> transfer(TransferRequest request, TransferListener listener) {
+        HttpGet get = new HttpGet(request.getUrl());
+        if (request.getRange() != null) {
+            get.setHeader("Range", request.getRange().toHeaderValue());
+        }
+        if (request.getIfRange() != null) {
+            // 文件在服务器端变化时，服务器会返回 200 和完整内容而不是 206
+            get.setHeader("If-Range", request.getIfRange());
+        }
+        return submit(get, () -> execute(get, request, listener));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchBytes(URI uri) {
+        HttpGet get = new HttpGet(uri);
+        return submit(get, () -> {
+            try (CloseableHttpResponse response = client.execute(get)) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status / 100 != 2) {
+                    throw new HttpStatusException("请求 " + uri + " 失败，状态码: " + status, status);
+                }
+                HttpEntity entity = response.getEntity();
+                return entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+            }
+        });
+    }
+
+    private long execute(HttpGet get, TransferRequest request, TransferListener listener) throws IOException {
+        listener.onStart();
+        try (CloseableHttpResponse response = client.execute(get)) {
+            request.checkStatus(response.getStatusLine().getStatusCode());
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("无内容");
+            }
+            listener.onResponse(entity.getContentLength());
+
+            try (InputStream inputStream = entity.getContent();
+                 FileChannel channel = FileChannel.open(request.getOutputPath(), StandardOpenOption.WRITE)) {
+                return copy(inputStream, channel, request.getStart(), request.getLimit(), listener);
+            }
+        }
+    }
+
+    /**
+     * 从输入流读入可复用的大缓冲区，再用定位写写入文件通道。
+     * HttpClient 4 只提供 InputStream，缓冲区足够大时它会直接从 socket 读满整块，
+     * 每次读写都能搬运尽可能多的数据。
+     *
+     * @param start 写入文件的起始偏移
+     * @param limit 最多写到的位置 (不含)，小于 0 表示不限
+     * @return 写完后的文件位置
+     */
+    private long copy(InputStream inputStream, FileChannel channel, long start, long limit,
+                      TransferListener listener) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        long position = start;
+        int bytesRead;
+
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            if (limit >= 0 && position + bytesRead > limit) {
+                throw new IOException("返回的数据超出预期长度");
+            }
+            wrapper.clear().limit(bytesRead);
+            listener.onData(position, wrapper);
+            wrapper.clear().limit(bytesRead);
+            DownloadEvents.DiskWrite event = new DownloadEvents.DiskWrite();
+            event.begin();
+            long writeStart = System.nanoTime();
+            while (wrapper.hasRemaining()) {
+                position += channel.write(wrapper, position);
+            }
+            DownloadMetrics.diskWrite(event, writeStart, position - bytesRead, bytesRead);
+            listener.onWritten(position, bytesRead);
+        }
+        return position;
+    }
+
+    private interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * 在虚拟线程上执行阻塞调用；future 被 cancel 时中止请求，让阻塞的读立刻返回
+     */
+    private <T> CompletableFuture<T> submit(HttpGet get, IoCall<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                get.abort();
+            }
+        });
+        executor.execute(() -> {
+            // 排队期间已经被取消的请求不再发出
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(call.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private static final class TimedDnsResolver implements DnsResolver {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            DownloadEvents.DnsLookup event = new DownloadEvents.DnsLookup();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                return SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            } finally {
+                DownloadMetrics.DNS.record(System.nanoTime() - start);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.host = host;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private static class TimedSocketFactory implements ConnectionSocketFactory {
+        final ConnectionSocketFactory delegate;
+
+        TimedSocketFactory(ConnectionSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        /**
+         * 每次调用都是一条新连接，从池里复用的连接不会走到这里
+         */
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            DownloadMetrics.CONNECTIONS_OPENED.increment();
+            DownloadEvents.Connect event = new DownloadEvents.Connect();
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            } finally {
+                DownloadMetrics.CONNECT.record(System.nanoTime() - start);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.host = host.toHostString();
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    private static final class TimedLayeredSocketFactory extends TimedSocketFactory
+            implements LayeredConnectionSocketFactory {
+
+        TimedLayeredSocketFactory(LayeredConnectionSocketFactory delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException {
+            return ((LayeredConnectionSocketFactory) delegate).createLayeredSocket(socket, target, port, context);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        if (ownsClient) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package io.lazydog;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局带宽调度：所有下载共享一个总速率上限，每个主机还可以单独设上限，
+ * 同时进行的下载按权重 (优先级) 分配带宽，权重在传输过程中可以随时修改。
+ * <p>
+ * 每个下载登记一个 {@link Share}。登记、注销、改权重或改上限时重新计算每份的速率：
+ * 先按权重把总上限分给各主机，分到的超过主机上限的主机按上限封顶，多出来的再按权重分给其余主机 (注水算法)，
+ * 主机内部再按权重分给各个下载。这些操作很少发生，在调度器的锁里完成。
+ * <p>
+ * 复制循环上只调用 {@link Share#acquire}：每份有自己的令牌桶，用一个 AtomicLong 记录理论到达时间 (GCRA)，
+ * 读到数据后 CAS 推进，超出突发额度就停一会儿。只有同一个下载的几个分段会竞争这个计数，
+ * 不限速时只读一次 volatile 字段，没有锁，也不分配对象。
+ */
+final class BandwidthScheduler {
+
+    /**
+     * 所有下载共享的调度器，默认不限速
+     */
+    static final BandwidthScheduler GLOBAL = new BandwidthScheduler();
+
+    static final int DEFAULT_WEIGHT = 10;
+    static final int MAX_WEIGHT = 1000;
+
+    /**
+     * 每份允许的突发量，按时间计：空闲之后 100 ms 以内能传完的数据不用等
+     */
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 限速等待时每次最多睡这么久，醒来检查下载是否已经结束
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // 以下字段在持有 this 时读写
+    private final List<Share> shares = new ArrayList<>();
+    private final Map<String, Long> hostLimits = new HashMap<>();
+    private long totalLimit;
+
+    /**
+     * @param bytesPerSecond 所有下载合计的速率上限，0 表示不限
+     */
+    synchronized void setTotalLimit(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid bandwidth limit: " + bytesPerSecond);
+        }
+        totalLimit = bytesPerSecond;
+        reallocate();
+    }
+
+    synchronized long getTotalLimit() {
+        return totalLimit;
+    }
+
+    /**
+     * @param bytesPerSecond 该主机上所有下载合计的速率上限，0 表示不限
+     */
+    synchronized void setHostLimit(String host, long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid bandwidth limit: " + bytesPerSecond);
+        }
+        if (bytesPerSecond == 0) {
+            hostLimits.remove(host.toLowerCase());
+        } else {
+            hostLimits.put(host.toLowerCase(), bytesPerSecond);
+        }
+        reallocate();
+    }
+
+    /**
+     * 登记一个下载，下载结束时必须 close
+     *
+     * @param host   下载所在的主机，用于按主机限速
+     * @param weight 权重，1 到 {@link #MAX_WEIGHT}，越大分到的带宽越多
+     */
+    synchronized Share register(String host, int weight) {
+        Share share = new Share(host == null ? "" : host.toLowerCase(), checkWeight(weight));
+        shares.add(share);
+        reallocate();
+        return share;
+    }
+
+    private static int checkWeight(int weight) {
+        if (weight < 1 || weight > MAX_WEIGHT) {
+            throw new IllegalArgumentException("Weight must be between 1 and " + MAX_WEIGHT + ": " + weight);
+        }
+        return weight;
+    }
+
+    /**
+     * 重新计算每份的速率，调用方持有 this
+     */
+    private void reallocate() {
+        Map<String, Long> hostWeights = new HashMap<>();
+        for (Share share : shares) {
+            hostWeights.merge(share.host, (long) share.weight, Long::sum);
+        }
+        // 各主机分到的速率，无穷大表示不限
+        Map<String, Double> hostRates = new HashMap<>();
+        double remaining = totalLimit > 0 ? totalLimit : Double.POSITIVE_INFINITY;
+        Map<String, Long> open = new HashMap<>(hostWeights);
+        boolean capped = true;
+        while (capped && !open.isEmpty()) {
+            capped = false;
+            long openWeight = 0;
+            for (long weight : open.values()) {
+                openWeight += weight;
+            }
+            List<String> full = new ArrayList<>();
+            for (Map.Entry<String, Long> entry : open.entrySet()) {
+                Long limit = hostLimits.get(entry.getKey());
+                if (limit != null && limit <= remaining * entry.getValue() / openWeight) {
+                    full.add(entry.getKey());
+                }
+            }
+            // 同一轮里封顶的主机按本轮开始时的余量判断，封顶后余量变多，剩下的主机下一轮再看
+            for (String host : full) {
+                long limit = hostLimits.get(host);
+                hostRates.put(host, (double) limit);
+                remaining -= limit;
+                open.remove(host);
+                capped = true;
+            }
+        }
+        long openWeight = 0;
+        for (long weight : open.values()) {
+            openWeight += weight;
+        }
+        for (Map.Entry<String, Long> entry : open.entrySet()) {
+            hostRates.put(entry.getKey(), remaining * entry.getValue() / openWeight);
+        }
+        for (Share share : shares) {
+            double hostRate = hostRates.get(share.host);
+            share.rate = Double.isInfinite(hostRate)
+                    ? 0
+                    : Math.max(1, (long) (hostRate * share.weight / hostWeights.get(share.host)));
+        }
+    }
+
+    private synchronized void update(Share share, int weight) {
+        if (share.weight != weight) {
+            share.weight = weight;
+            reallocate();
+        }
+    }
+
+    private synchronized void unregister(Share share) {
+        if (shares.remove(share)) {
+            reallocate();
+        }
+    }
+
+    /**
+     * 一个下载分到的带宽。acquire 可以被该下载的多个分段并发调用
+     */
+    final class Share implements AutoCloseable {
+        private final String host;
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+        // weight 在持有调度器锁时写
+        private volatile int weight;
+        private volatile long rate;
+        private volatile boolean closed;
+
+        private Share(String host, int weight) {
+            this.host = host;
+            this.weight = weight;
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        int getWeight() {
+            return weight;
+        }
+
+        /**
+         * 修改权重，立即影响所有正在进行的下载的分配
+         */
+        void setWeight(int weight) {
+            update(this, checkWeight(weight));
+        }
+
+        /**
+         * @return 当前分到的速率 (字节/秒)，0 表示不限
+         */
+        long getRate() {
+            return rate;
+        }
+
+        /**
+         * 记下刚收到的 bytes 字节，速率超出分配时阻塞到允许继续读为止
+         *
+         * @return 因限速等待的纳秒数
+         * @throws InterruptedIOException 等待时线程被中断，或者下载已经结束
+         */
+        long acquire(int bytes) throws InterruptedIOException {
+            long limit = rate;
+            if (limit <= 0 || bytes <= 0) {
+                return 0;
+            }
+            long cost = bytes * 1_000_000_000L / limit;
+            long now = System.nanoTime();
+            long previous;
+            long next;
+            do {
+                previous = theoreticalArrival.get();
+                next = Math.max(previous, now) + cost;
+            } while (!theoreticalArrival.compareAndSet(previous, next));
+
+            long deadline = next - BURST_NANOS;
+            long wait = deadline - now;
+            if (wait <= 0) {
+                return 0;
+            }
+            while (wait > 0) {
+                LockSupport.parkNanos(this, Math.min(wait, MAX_PARK_NANOS));
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("限速等待被中断");
+                }
+                if (closed) {
+                    throw new InterruptedIOException("下载已结束");
+                }
+                wait = deadline - System.nanoTime();
+            }
+            long waited = System.nanoTime() - now;
+            DownloadMetrics.THROTTLE.record(waited);
+            return waited;
+        }
+
+        /**
+         * 注销，剩余带宽重新分给其他下载；还在限速等待的分段随即以 InterruptedIOException 结束
+         */
+        @Override
+        public void close() {
+            closed = true;
+            unregister(this);
+        }
+    }
+}
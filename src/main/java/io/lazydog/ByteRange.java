@@ -0,0 +1,57 @@
+package io.lazydog;
+
+/**
+ * 文件中的一段字节区间 [start, end]，两端均包含，对应 HTTP Range 头的语义
+ */
+final class ByteRange {
+    private final long start;
+    private final long end;
+
+    ByteRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range: " + start + "-" + end);
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return 形如 "bytes=0-1023" 的 Range 请求头
+     */
+    public String toHeaderValue() {
+        return "bytes=" + start + "-" + end;
+    }
+
+    /**
+     * 将长度为 totalSize 的文件尽量均匀地切成 count 段
+     */
+    static ByteRange[] split(long totalSize, int count) {
+        ByteRange[] ranges = new ByteRange[count];
+        long segmentSize = totalSize / count;
+        long start = 0;
+        for (int i = 0; i < count; i++) {
+            // 最后一段吃掉除不尽的余数
+            long end = (i == count - 1) ? totalSize - 1 : start + segmentSize - 1;
+            ranges[i] = new ByteRange(start, end);
+            start = end + 1;
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+}
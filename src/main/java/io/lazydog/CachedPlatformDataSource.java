@@ -0,0 +1,133 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 带缓存的平台数据源：把平台数据按 blockSize 对齐分块，每次向上游取整块并缓存，
+ * 请求的区间从缓存的块中截取。全局 pageSize 不同的页会落在同样的块上，来回翻页或换每页条数都能复用。
+ * <p>
+ * 块的 key 包含平台数据量的版本，数据量变化后旧的块不再命中，按大小和有效期淘汰。
+ * 上游每页的大小应等于 blockSize，这样每块正好是上游的一页。同一块同时未命中时只向上游请求一次。
+ */
+public final class CachedPlatformDataSource implements PlatformDataSource {
+
+    private static final class BlockKey {
+        final String platform;
+        final long block;
+        final long version;
+
+        BlockKey(String platform, long block, long version) {
+            this.platform = platform;
+            this.block = block;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return block == other.block && version == other.version && platform.equals(other.platform);
+        }
+
+        @Override
+        public int hashCode() {
+            return (platform.hashCode() * 31 + Long.hashCode(block)) * 31 + Long.hashCode(version);
+        }
+    }
+
+    private final PlatformDataSource delegate;
+    private final PlatformCountProvider counts;
+    private final int blockSize;
+    private final ExpiringLruCache<BlockKey, List<String>> blocks;
+    private final SingleFlight<BlockKey, List<String>> loading = new SingleFlight<>();
+
+    /**
+     * @param delegate  上游数据源
+     * @param counts    各平台的数据量，用于截断最后一块和区分版本
+     * @param blockSize 块的大小
+     * @param maxBlocks 最多缓存的块数
+     * @param ttlMillis 块的有效期
+     */
+    public CachedPlatformDataSource(PlatformDataSource delegate, PlatformCountProvider counts, int blockSize,
+                                    int maxBlocks, long ttlMillis) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid blockSize: " + blockSize);
+        }
+        this.delegate = delegate;
+        this.counts = counts;
+        this.blockSize = blockSize;
+        this.blocks = new ExpiringLruCache<>(maxBlocks, ttlMillis);
+    }
+
+    @Override
+    public List<String> fetch(String platform, long offset, int limit) throws IOException {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<String> data = new ArrayList<>(limit);
+        long end = offset + limit;
+        for (long block = offset / blockSize; block * blockSize < end; block++) {
+            List<String> rows = block(platform, block);
+            long blockStart = block * blockSize;
+            int from = (int) (Math.max(offset, blockStart) - blockStart);
+            int to = (int) Math.min(rows.size(), end - blockStart);
+            if (from < to) {
+                data.addAll(rows.subList(from, to));
+            }
+            if (rows.size() < blockSize) {
+                // 平台的最后一块，后面没有数据了
+                break;
+            }
+        }
+        return data;
+    }
+
+    private List<String> block(String platform, long block) throws IOException {
+        long version = counts.getVersion();
+        BlockKey key = new BlockKey(platform, block, version);
+        List<String> rows = blocks.get(key);
+        if (rows != null) {
+            return rows;
+        }
+        // 同一块同时未命中时只向上游取一次
+        return loading.execute(key, () -> load(key));
+    }
+
+    private List<String> load(BlockKey key) throws IOException {
+        // 等待合并的请求期间可能已经有别的调用方把这一块放进缓存
+        List<String> rows = blocks.get(key);
+        if (rows != null) {
+            return rows;
+        }
+        String platform = key.platform;
+        long version = key.version;
+        long blockStart = key.block * blockSize;
+        int size = (int) Math.max(0, Math.min(blockSize, counts.getCount(platform) - blockStart));
+        rows = size == 0 ? Collections.emptyList() : Collections.unmodifiableList(
+                new ArrayList<>(delegate.fetch(platform, blockStart, size)));
+        // 取数据期间数据量变了，块的大小可能与版本对不上，不放入缓存
+        if (counts.getVersion() == version) {
+            blocks.put(key, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * @return 缓存的块数，包括已过期还没删除的
+     */
+    public int getCachedBlockCount() {
+        return blocks.size();
+    }
+
+    public void clear() {
+        blocks.clear();
+    }
+}
@@ -1,20 +1,57 @@
 package io.lazydog;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class DataAggregator {
 
     private static final List<String> PLATFORMS = Arrays.asList("A", "B", "C", "D");
     private static final int MAX_PAGE_SIZE = 50;
 
+    /**
+     * 并发聚合时单个平台查询的默认超时
+     */
+    private static final long DEFAULT_PLATFORM_TIMEOUT_MILLIS = 3000;
+
+    /**
+     * 并发聚合时每个平台查询一个虚拟线程，等待上游响应不占用平台线程
+     */
+    private static final ExecutorService FETCH_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final Map<String, Long> platformTimeoutMillis = new ConcurrentHashMap<>();
+
+    /**
+     * 平台没有单独设置时假定支持 offset/limit
+     */
+    private static final PlatformCapabilities DEFAULT_CAPABILITIES = PlatformCapabilities.offsetLimit(MAX_PAGE_SIZE);
+
+    private static final Map<String, PlatformCapabilities> platformCapabilities = new ConcurrentHashMap<>();
+
+    /**
+     * 正在进行的上游请求，并发页面中完全相同的请求合并成一次
+     */
+    private static final SingleFlight<CallKey, List<String>> IN_FLIGHT = new SingleFlight<>();
+
     /**
      *  模拟各平台数据总数 (实际应用中应从数据库或API获取)
      */
-    private static Map<String, Integer> platformDataCounts = new HashMap<>();
+    private static Map<String, Integer> platformDataCounts = new ConcurrentHashMap<>();
     static {
         platformDataCounts.put("A", 20);
         platformDataCounts.put("B", 80);
@@ -24,60 +61,72 @@ public class DataAggregator {
 
 
     /**
-     *  计算查询的起始和结束平台信息
-     * @param pageNum  页码 (从1开始)
-     * @param pageSize 每页大小 (最大50)
-     * @return 查询信息 (包含起始平台、起始平台内的偏移量、结束平台、结束平台内的偏移量)
+     * 平台数据量的有效期，过期后翻页照常进行，数据量在后台刷新
      */
-    public static QueryInfo calculateQueryInfo(int pageNum, int pageSize) {
-        if (pageNum <= 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
-            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+    private static final long PLATFORM_COUNT_TTL_MILLIS = 60_000;
+
+    /**
+     * 按 PLATFORMS 的顺序缓存的各平台数据量，分页规划都从这里取
+     */
+    private static final PlatformCountProvider COUNTS = createCountProvider();
+
+    private static PlatformCountProvider createCountProvider() {
+        try {
+            return new PlatformCountProvider(PLATFORMS.toArray(new String[0]), DataAggregator::loadPlatformCounts,
+                    PLATFORM_COUNT_TTL_MILLIS, MAX_PAGE_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException("加载平台数据量失败", e);
         }
+    }
 
-        int startIndex = (pageNum - 1) * pageSize; //全局起始索引
-        int endIndex = startIndex + pageSize -1; //全局结束索引
+    /**
+     * 模拟从数据库或API获取各平台数据总数，按 PLATFORMS 的顺序
+     */
+    private static long[] loadPlatformCounts() {
+        long[] counts = new long[PLATFORMS.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = platformDataCounts.get(PLATFORMS.get(i));
+        }
+        return counts;
+    }
 
-        QueryInfo queryInfo = new QueryInfo();
-        int currentTotal = 0;
-        String startPlatform = null;
-        String endPlatform = null;
-        int startPlatformOffset = -1;
-        int endPlatformOffset = -1;
-
-        for (String platform : PLATFORMS) {
-            int platformCount = platformDataCounts.get(platform);
-
-            // 查找起始平台
-            if (startPlatform == null) {
-                if (startIndex < currentTotal + platformCount) {
-                    startPlatform = platform;
-                    startPlatformOffset = startIndex - currentTotal;
-                }
-            }
+    /**
+     * 聚合结果和平台数据块的有效期
+     */
+    private static final long CACHE_TTL_MILLIS = 30_000;
 
-            //查找结束平台
-            if(endPlatform == null){
-                if(endIndex < currentTotal + platformCount){
-                    endPlatform = platform;
-                    endPlatformOffset = endIndex - currentTotal;
-                }
-            }
+    /**
+     * 拼好的整页，key 包含页码、每页条数和规划时的数据量版本
+     */
+    private static final ExpiringLruCache<PageKey, List<String>> PAGE_CACHE = new ExpiringLruCache<>(256, CACHE_TTL_MILLIS);
 
-            currentTotal += platformCount;
+    /**
+     * 按平台分页对齐缓存的平台数据，每页条数不同的页也能复用
+     */
+    private static final CachedPlatformDataSource PLATFORM_SOURCE = new CachedPlatformDataSource(
+            DataAggregator::fetchDataFromPlatform, COUNTS, MAX_PAGE_SIZE, 1024, CACHE_TTL_MILLIS);
 
-            if(startPlatform != null && endPlatform != null){
-                break; //找到了起始和结束平台，退出循环
-            }
+    /**
+     *  计算查询的起始和结束平台信息
+     * @param pageNum  页码 (从1开始)
+     * @param pageSize 每页大小 (最大50)
+     * @return 查询信息 (包含起始平台、起始平台内的偏移量、结束平台、结束平台内的偏移量)；
+     *         最后一页不足 pageSize 时结束位置截到最后一条，页码超出总数据量时返回 null
+     */
+    public static QueryInfo calculateQueryInfo(int pageNum, int pageSize) {
+        if (pageNum <= 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
         }
 
-        if (startPlatform == null || endPlatform == null) {
-            // 数据不足以填满请求的页
-            return null; // 或者抛出异常，根据实际需求处理
+        PaginationPlanner.PagePlan plan = COUNTS.plan(pageNum, pageSize);
+        if (plan == null) {
+            return null;
         }
-        queryInfo.setStartPlatform(startPlatform);
-        queryInfo.setStartPlatformOffset(startPlatformOffset);
-        queryInfo.setEndPlatform(endPlatform);
-        queryInfo.setEndPlatformOffset(endPlatformOffset);
+        QueryInfo queryInfo = new QueryInfo();
+        queryInfo.setStartPlatform(plan.getStartPlatform());
+        queryInfo.setStartPlatformOffset(plan.getStartOffset());
+        queryInfo.setEndPlatform(plan.getEndPlatform());
+        queryInfo.setEndPlatformOffset(plan.getEndOffset());
         queryInfo.setPageNum(pageNum);
         queryInfo.setPageSize(pageSize);
 
@@ -92,7 +141,7 @@ public class DataAggregator {
      * @param limit    查询数量
      * @return 模拟数据列表
      */
-    private static List<String> fetchDataFromPlatform(String platform, int offset, int limit) {
+    static List<String> fetchDataFromPlatform(String platform, long offset, int limit) {
         // 在这里模拟从平台获取数据的逻辑，例如从数据库或API获取
         // 这里简单地返回一个模拟数据列表
         List<String> data = new ArrayList<>();
@@ -104,54 +153,310 @@ public class DataAggregator {
 
 
     /**
-     *  聚合数据
+     * 设置并发聚合时某个平台单次查询的超时
+     *
+     * @param timeoutMillis 超时毫秒数，0 表示恢复默认值
+     */
+    public static void setPlatformTimeout(String platform, long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeoutMillis);
+        }
+        if (timeoutMillis == 0) {
+            platformTimeoutMillis.remove(platform);
+        } else {
+            platformTimeoutMillis.put(platform, timeoutMillis);
+        }
+    }
+
+    private static long platformTimeoutNanos(String platform) {
+        return TimeUnit.MILLISECONDS.toNanos(platformTimeoutMillis.getOrDefault(platform, DEFAULT_PLATFORM_TIMEOUT_MILLIS));
+    }
+
+    /**
+     *  聚合数据。整页和平台数据块都有缓存，数据量变化后 (版本号变了) 旧的缓存不再使用
      * @param pageNum 页码
      * @param pageSize 每页大小
      * @return 聚合后的数据列表
      */
     public static List<String> aggregateData(int pageNum, int pageSize) {
-        QueryInfo queryInfo = calculateQueryInfo(pageNum, pageSize);
-
-        if (queryInfo == null) {
+        if (pageNum <= 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+        }
+        PaginationPlanner.PagePlan plan = COUNTS.plan(pageNum, pageSize);
+        if (plan == null) {
             return new ArrayList<>(); // 或者抛出异常，根据实际需求处理
         }
 
-        List<String> aggregatedData = new ArrayList<>();
-        String currentPlatform = queryInfo.getStartPlatform();
-        int currentOffset = queryInfo.getStartPlatformOffset();
-        int remaining = pageSize; // 剩余需要获取的数据量
+        PageKey key = new PageKey(pageNum, pageSize, plan.getVersion());
+        List<String> cached = PAGE_CACHE.get(key);
+        if (cached != null) {
+            return new ArrayList<>(cached);
+        }
+        List<String> aggregatedData = new ArrayList<>(plan.size());
+        for (PaginationPlanner.Task task : plan.tasks()) {
+            long offset = (task.getPageNum() - 1) * MAX_PAGE_SIZE + task.getStartOffset();
+            try {
+                aggregatedData.addAll(PLATFORM_SOURCE.fetch(task.getPlatform(), offset, task.getCount()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        PAGE_CACHE.put(key, Collections.unmodifiableList(new ArrayList<>(aggregatedData)));
+        return aggregatedData;
+    }
 
-        while (remaining > 0 && PLATFORMS.indexOf(currentPlatform) <= PLATFORMS.indexOf(queryInfo.getEndPlatform())) {
+    /**
+     * 从全局第 fromIndex 条 (从 0 开始) 开始按顺序遍历所有平台的数据，后台预取后面两页。
+     * 遍历直接访问上游，不经过分页缓存，避免一次完整遍历把缓存里常用的页挤掉。用完需要 close
+     */
+    public static PlatformCursor cursor(long fromIndex) {
+        return new PlatformCursor(DataAggregator::fetchDataFromPlatform, COUNTS, fromIndex, 2);
+    }
 
-            int platformCount = platformDataCounts.get(currentPlatform);
-            int limit = Math.min(remaining, MAX_PAGE_SIZE - currentOffset); // 考虑平台内最大查询限制
+    /**
+     * 以流的形式遍历所有平台的数据，需要在 try-with-resources 中使用以便关闭
+     */
+    public static Stream<String> stream() {
+        return cursor(0).stream();
+    }
 
-             // 如果当前平台是结束平台，则限制查询数量
-            if (currentPlatform.equals(queryInfo.getEndPlatform())) {
-                limit = Math.min(limit, queryInfo.getEndPlatformOffset() - currentOffset + 1);
+    /**
+     * 按字段全局排序的跨平台分页 (各平台按同一顺序返回数据)。深页从每 1000 条一个的检查点继续归并，
+     * 检查点最多 1024 个，平台数据量变化 (版本号变了) 时作废
+     */
+    public static <T> MergedPageAggregator<T> sortedAggregator(MergedPageAggregator.SortedSource<T> source,
+                                                               Comparator<? super T> order) {
+        return new MergedPageAggregator<>(PLATFORMS.toArray(new String[0]), source, order, MAX_PAGE_SIZE,
+                1000, 1024, COUNTS::getVersion);
+    }
+
+    private static final class PageKey {
+        private final int pageNum;
+        private final int pageSize;
+        private final long version;
+
+        PageKey(int pageNum, int pageSize, long version) {
+            this.pageNum = pageNum;
+            this.pageSize = pageSize;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
             }
+            PageKey other = (PageKey) o;
+            return pageNum == other.pageNum && pageSize == other.pageSize && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return (pageNum * 31 + pageSize) * 31 + Long.hashCode(version);
+        }
+    }
 
-            List<String> platformData = fetchDataFromPlatform(currentPlatform, currentOffset, limit);
-            aggregatedData.addAll(platformData);
+    /**
+     * 并发聚合数据：这一页涉及的所有平台分页查询同时发出，每个查询一个虚拟线程，
+     * 结果按全局顺序拼接，页面耗时接近最慢的那个平台而不是各平台之和。
+     * <p>
+     * 上游请求按各平台的能力 (见 {@link #setPlatformCapabilities}) 拆到最少；
+     * 同时进行的几个页面发出完全相同的请求时只请求一次，结果共用。
+     * <p>
+     * 每个查询有自己的超时 (见 {@link #setPlatformTimeout})，从发出时开始计算。
+     * 任何一个查询失败或超时，整页失败，其余还没结束的查询被取消 (线程被中断)；
+     * 方法返回时不会留下仍在运行的查询。
+     *
+     * @param source 平台数据的查询接口
+     * @return 聚合后的数据列表；页码超出总数据量时为空
+     * @throws IOException 某个平台查询失败、超时或返回的条数不足
+     */
+    public static List<String> aggregateDataConcurrently(int pageNum, int pageSize, PlatformDataSource source)
+            throws IOException {
+        if (pageNum <= 0 || pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+        }
+        PaginationPlanner.PagePlan plan = COUNTS.plan(pageNum, pageSize);
+        if (plan == null) {
+            return new ArrayList<>();
+        }
 
-            remaining -= platformData.size();
-            currentOffset = 0; // 下一个平台的偏移量重置为0
+        String[] rows = new String[plan.size()];
+        List<PageQuery> queries = new ArrayList<>();
+        for (UpstreamCallPlanner.UpstreamCall call : UpstreamCallPlanner.plan(plan, DataAggregator::capabilitiesOf)) {
+            queries.add(new PageQuery(call));
+        }
 
-            // 移动到下一个平台
-            int nextPlatformIndex = PLATFORMS.indexOf(currentPlatform) + 1;
-            if (nextPlatformIndex < PLATFORMS.size()) {
-                currentPlatform = PLATFORMS.get(nextPlatformIndex);
-            } else {
-                break; // 已经到达最后一个平台
+        CompletionService<PageQuery> completionService = new ExecutorCompletionService<>(FETCH_EXECUTOR);
+        long startNanos = System.nanoTime();
+        for (PageQuery query : queries) {
+            query.deadline = startNanos + platformTimeoutNanos(query.platform);
+            query.future = completionService.submit(() -> {
+                query.copyTo(rows, fetchShared(source, query.call));
+                return query;
+            });
+        }
+        try {
+            for (int remaining = queries.size(); remaining > 0; remaining--) {
+                PageQuery first = earliestPending(queries);
+                Future<PageQuery> done = completionService.poll(first.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    // 最早到期的查询还没结束；轮询期间它可能刚好完成，交给下一轮处理
+                    if (!first.future.isDone()) {
+                        throw new IOException("平台 " + first.platform + " 查询超时 ("
+                                + TimeUnit.NANOSECONDS.toMillis(first.deadline - startNanos) + " ms)");
+                    }
+                    done = completionService.take();
+                }
+                try {
+                    done.get();
+                } catch (ExecutionException e) {
+                    PageQuery failed = queryOf(queries, done);
+                    Throwable cause = e.getCause();
+                    throw cause instanceof IOException
+                            ? (IOException) cause
+                            : new IOException("平台 " + failed.platform + " 查询失败", cause);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("聚合查询被中断");
+        } finally {
+            // 整页完成时这里什么都不做；失败或超时时中断其余查询
+            for (PageQuery query : queries) {
+                query.future.cancel(true);
             }
         }
+        return new ArrayList<>(Arrays.asList(rows));
+    }
 
-        return aggregatedData;
+    private static PageQuery earliestPending(List<PageQuery> queries) {
+        PageQuery first = null;
+        for (PageQuery query : queries) {
+            if (!query.future.isDone() && (first == null || query.deadline - first.deadline < 0)) {
+                first = query;
+            }
+        }
+        // 全部完成但结果还没取走时，任取一个，poll 会立即返回
+        return first != null ? first : queries.get(0);
+    }
+
+    private static PageQuery queryOf(List<PageQuery> queries, Future<PageQuery> future) {
+        for (PageQuery query : queries) {
+            if (query.future == future) {
+                return query;
+            }
+        }
+        throw new IllegalStateException("Unknown future");
+    }
+
+    /**
+     * 并发聚合中的一次上游请求
+     */
+    private static final class PageQuery {
+        final UpstreamCallPlanner.UpstreamCall call;
+        final String platform;
+        long deadline;
+        Future<PageQuery> future;
+
+        PageQuery(UpstreamCallPlanner.UpstreamCall call) {
+            this.call = call;
+            this.platform = call.getPlatform();
+        }
+
+        /**
+         * 把查询结果中需要的部分放到这一页中对应的位置；各查询写的区间互不重叠
+         */
+        void copyTo(String[] rows, List<String> data) throws IOException {
+            int needed = call.getSkip() + call.getCount();
+            if (data.size() < needed) {
+                throw new IOException("平台 " + platform + " 返回 " + data.size() + " 条，需要 " + needed + " 条");
+            }
+            for (int i = 0; i < call.getCount(); i++) {
+                rows[call.getTargetOffset() + i] = data.get(call.getSkip() + i);
+            }
+        }
+    }
+
+    /**
+     * 设置某个平台查询接口支持的分页方式，并发聚合据此决定最少的上游请求
+     *
+     * @param capabilities null 表示恢复默认 (offset/limit，单次最多 MAX_PAGE_SIZE 条)
+     */
+    public static void setPlatformCapabilities(String platform, PlatformCapabilities capabilities) {
+        if (capabilities == null) {
+            platformCapabilities.remove(platform);
+        } else {
+            platformCapabilities.put(platform, capabilities);
+        }
+    }
+
+    private static PlatformCapabilities capabilitiesOf(String platform) {
+        return platformCapabilities.getOrDefault(platform, DEFAULT_CAPABILITIES);
+    }
+
+    /**
+     * 发出一次上游请求；其他并发的页面正在发出完全相同的请求时，等待并共用那次的结果
+     */
+    private static List<String> fetchShared(PlatformDataSource source, UpstreamCallPlanner.UpstreamCall call)
+            throws IOException {
+        CallKey key = new CallKey(source, call.getPlatform(), call.getOffset(), call.getLimit());
+        while (true) {
+            boolean[] leader = {false};
+            try {
+                return IN_FLIGHT.execute(key, () -> {
+                    leader[0] = true;
+                    return source.fetch(call.getPlatform(), call.getOffset(), call.getLimit());
+                });
+            } catch (InterruptedIOException e) {
+                // 共用的那次请求属于另一个失败后被取消的页面，自己没有被取消就重新发起
+                if (leader[0] || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
     }
 
+    /**
+     * 上游请求的 key，不同数据源的相同请求不合并
+     */
+    private static final class CallKey {
+        private final PlatformDataSource source;
+        private final String platform;
+        private final long offset;
+        private final int limit;
+
+        CallKey(PlatformDataSource source, String platform, long offset, int limit) {
+            this.source = source;
+            this.platform = platform;
+            this.offset = offset;
+            this.limit = limit;
+        }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CallKey)) {
+                return false;
+            }
+            CallKey other = (CallKey) o;
+            return source == other.source && offset == other.offset && limit == other.limit
+                    && platform.equals(other.platform);
+        }
 
-    public static void main(String[] args) {
+        @Override
+        public int hashCode() {
+            return ((System.identityHashCode(source) * 31 + platform.hashCode()) * 31 + Long.hashCode(offset)) * 31
+                    + limit;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
         int pageNum = 1;
         int pageSize = 50;
 
@@ -186,14 +491,75 @@ public class DataAggregator {
         for (String item : data) {
             System.out.println(item);
         }
+
+        System.out.println("--------------------");
+        // 并发聚合：模拟每个平台查询耗时 200 ms，第 1 页涉及 A、B 两个平台
+        PlatformDataSource slowSource = (platform, offset, limit) -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("查询被取消");
+            }
+            return fetchDataFromPlatform(platform, offset, limit);
+        };
+        pageNum = 1;
+        long start = System.nanoTime();
+        data = aggregateDataConcurrently(pageNum, pageSize, slowSource);
+        System.out.println("Concurrent Aggregated Data (Page " + pageNum + ", Size " + pageSize + ", "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms): " + data);
+
+        // 平台 B 超时，整页失败
+        setPlatformTimeout("B", 100);
+        try {
+            aggregateDataConcurrently(pageNum, pageSize, slowSource);
+        } catch (IOException e) {
+            System.out.println("Concurrent Aggregation Failed: " + e.getMessage());
+        } finally {
+            setPlatformTimeout("B", 0);
+        }
+
+        System.out.println("--------------------");
+        // 平台 A 的数据量变化：只更新该平台，之后的分页立即按新的数据量规划
+        COUNTS.updateCount("A", 30);
+        System.out.println("Count Version " + COUNTS.getVersion() + ": " + calculateQueryInfo(1, 50));
+
+        System.out.println("--------------------");
+        // 换一种每页条数翻页，平台数据块来自缓存
+        PLATFORM_SOURCE.clear();
+        aggregateData(1, 50);
+        aggregateData(2, 50);
+        int blocks = PLATFORM_SOURCE.getCachedBlockCount();
+        data = aggregateData(3, 20);
+        System.out.println("Cached Blocks " + blocks + " -> " + PLATFORM_SOURCE.getCachedBlockCount()
+                + ", Page 3 (Size 20): " + data);
+
+        System.out.println("--------------------");
+        // 用游标从任意位置继续遍历，不用每页重新定位
+        try (PlatformCursor cursor = cursor(95)) {
+            cursor.hasNext();
+            System.out.println("Cursor at " + cursor.getPosition() + ": platform " + cursor.getPlatform()
+                    + ", offset " + cursor.getPlatformOffset() + ", first " + cursor.next());
+        }
+        try (Stream<String> all = stream()) {
+            System.out.println("Streamed " + all.count() + " of " + COUNTS.getTotal() + " rows");
+        }
+
+        System.out.println("--------------------");
+        // 第 2 页在平台 B 上跨了平台分页的边界：支持 offset/limit 时一次请求，只能按页查询时挑一个合适的页大小
+        PaginationPlanner.PagePlan plan = COUNTS.plan(2, 50);
+        System.out.println("Upstream Calls (offset/limit): " + UpstreamCallPlanner.plan(plan, DataAggregator::capabilitiesOf));
+        System.out.println("Upstream Calls (fixed pages): "
+                + UpstreamCallPlanner.plan(plan, platform -> PlatformCapabilities.fixedPages(MAX_PAGE_SIZE)));
+        System.out.println("Upstream Calls (pages): "
+                + UpstreamCallPlanner.plan(plan, platform -> PlatformCapabilities.pages(MAX_PAGE_SIZE)));
     }
 
 
     static class QueryInfo {
         private String startPlatform;
-        private int startPlatformOffset;
+        private long startPlatformOffset;
         private String endPlatform;
-        private int endPlatformOffset;
+        private long endPlatformOffset;
         private int pageNum;
         private int pageSize;
 
@@ -207,11 +573,11 @@ public class DataAggregator {
             this.startPlatform = startPlatform;
         }
 
-        public int getStartPlatformOffset() {
+        public long getStartPlatformOffset() {
             return startPlatformOffset;
         }
 
-        public void setStartPlatformOffset(int startPlatformOffset) {
+        public void setStartPlatformOffset(long startPlatformOffset) {
             this.startPlatformOffset = startPlatformOffset;
         }
 
@@ -223,11 +589,11 @@ public class DataAggregator {
             this.endPlatform = endPlatform;
         }
 
-        public int getEndPlatformOffset() {
+        public long getEndPlatformOffset() {
             return endPlatformOffset;
         }
 
-        public void setEndPlatformOffset(int endPlatformOffset) {
+        public void setEndPlatformOffset(long endPlatformOffset) {
             this.endPlatformOffset = endPlatformOffset;
         }
         public int getPageNum() {
@@ -0,0 +1,266 @@
+package io.lazydog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * 本地下载缓存：按 URL 记录上次下载时的校验值 (ETag/Last-Modified) 和内容的 SHA-256，
+ * 内容按哈希存放，不同 URL 下载到的相同内容只存一份。
+ * <p>
+ * 再次下载同一 URL 时先发条件请求，服务器返回 304 就直接从缓存生成输出文件，不再传输；
+ * 同一 URL 的并发下载合并成一次传输。
+ * <p>
+ * 目录结构: urls/{URL 的 SHA-256}.properties 记录条目，objects/{内容的 SHA-256} 存放内容。
+ * 缓存对象与输出文件是硬链接，同一文件系统上不占额外空间；不支持硬链接时退化为复制。
+ * Java 没有 reflink 接口，所以不做写时复制。下载器写输出文件前先断开已有的硬链接
+ * (见 {@link #unlink(Path)})，再次下载到同一路径不会改写缓存对象和其他 URL 的输出文件。
+ * <p>
+ * 对象的总大小超过上限时，按存入的先后删除最早的对象；输出文件还在的对象删除后并不释放空间，只是不再命中。
+ */
+final class DownloadCache {
+
+    /**
+     * 缓存未命中时执行的真正下载，内容写到 fetch 传入的输出文件
+     */
+    interface Download {
+        DownloadResult run() throws IOException;
+    }
+
+    /**
+     * 默认最多缓存 4 GB
+     */
+    static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+
+    private final Path urlsDir;
+    private final Path objectsDir;
+    private final long maxBytes;
+    private final SingleFlight<String, DownloadResult> inFlight = new SingleFlight<>();
+
+    /**
+     * @param directory 缓存目录，第一次写入时才创建
+     * @param maxBytes  缓存对象的总大小上限
+     */
+    DownloadCache(File directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid maxBytes: " + maxBytes);
+        }
+        this.urlsDir = directory.toPath().resolve("urls");
+        this.objectsDir = directory.toPath().resolve("objects");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 经过缓存下载 url 到 outputFile
+     * @param download 缓存未命中或已过期时调用
+     */
+    DownloadResult fetch(TransferEngine engine, String url, File outputFile, ProgressCallback callback,
+                         Download download) throws IOException {
+        boolean[] leader = {false};
+        DownloadResult result = inFlight.execute(url, () -> {
+            leader[0] = true;
+            return load(engine, url, outputFile, callback, download);
+        });
+        if (!leader[0]) {
+            DownloadMetrics.CACHE_JOINED.increment();
+            callback.log("同一 URL 正在下载，已复用那次下载的结果");
+        }
+        try {
+            materialize(objectsDir.resolve(result.getSha256()), outputFile.toPath());
+        } catch (NoSuchFileException e) {
+            // 对象刚好被别的下载淘汰，直接下载
+            callback.log("缓存的文件已被清理，重新下载");
+            return download.run();
+        }
+        // 输出文件已经是完整的内容，之前下载到这个路径时留下的断点续传日志不能再用
+        Files.deleteIfExists(DownloadJournal.journalFileFor(outputFile).toPath());
+        callback.update(new ProgressSnapshot(result.getSize(), result.getSize(), 0, 0));
+        return result;
+    }
+
+    private DownloadResult load(TransferEngine engine, String url, File outputFile, ProgressCallback callback,
+                                Download download) throws IOException {
+        Path entryFile = urlsDir.resolve(sha256(url) + ".properties");
+        Properties entry = readEntry(entryFile);
+        RemoteFileInfo info;
+        if (entry != null && isIntact(entry)) {
+            info = engine.revalidate(url, entry.getProperty("etag"), entry.getProperty("lastModified"));
+            if (info == null) {
+                DownloadMetrics.CACHE_HITS.increment();
+                callback.log("服务器返回 304，使用缓存的文件");
+                return new DownloadResult(Long.parseLong(entry.getProperty("length")),
+                        entry.getProperty("sha256"), entry.getProperty("md5"));
+            }
+            callback.log("缓存的文件已过期，重新下载");
+        } else {
+            info = engine.probe(url);
+        }
+
+        DownloadMetrics.CACHE_MISSES.increment();
+        // 摘要在下载过程中已经算好，不用再把文件读一遍
+        DownloadResult result = download.run();
+        Path object = objectsDir.resolve(result.getSha256());
+        Files.createDirectories(objectsDir);
+        try {
+            link(object, outputFile.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // 别的 URL 已经下载过同样的内容，输出文件改为链接到已有对象，释放重复的一份
+            callback.log("内容与已缓存的文件相同，不再重复保存");
+        }
+        if (info.getEtag() != null || info.getLastModified() != null) {
+            writeEntry(entryFile, url, result, object, info);
+        }
+        evict(object);
+        return result;
+    }
+
+    /**
+     * 对象的大小和修改时间与记录一致才认为可用；绕过下载器通过硬链接改写过输出文件时，对象也会跟着变
+     */
+    private boolean isIntact(Properties entry) {
+        Path object = objectsDir.resolve(entry.getProperty("sha256", ""));
+        try {
+            return Files.isRegularFile(object)
+                    && Long.toString(Files.size(object)).equals(entry.getProperty("length"))
+                    && Long.toString(Files.getLastModifiedTime(object).toMillis()).equals(entry.getProperty("mtime"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Properties readEntry(Path entryFile) {
+        if (!Files.isRegularFile(entryFile)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(entryFile)) {
+            props.load(in);
+            return props;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 与断点续传日志一样，先写临时文件再原子替换
+     */
+    private static void writeEntry(Path entryFile, String url, DownloadResult result, Path object,
+                                   RemoteFileInfo info) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("sha256", result.getSha256());
+        if (result.getMd5() != null) {
+            props.setProperty("md5", result.getMd5());
+        }
+        props.setProperty("length", Long.toString(Files.size(object)));
+        props.setProperty("mtime", Long.toString(Files.getLastModifiedTime(object).toMillis()));
+        if (info.getEtag() != null) {
+            props.setProperty("etag", info.getEtag());
+        }
+        if (info.getLastModified() != null) {
+            props.setProperty("lastModified", info.getLastModified());
+        }
+        Files.createDirectories(entryFile.getParent());
+        Path temp = Files.createTempFile(entryFile.getParent(), entryFile.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, "download cache entry");
+        }
+        Files.move(temp, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 对象的总大小超过上限时，从最早存入的开始删除，刚存入的 keep 不删
+     */
+    private synchronized void evict(Path keep) throws IOException {
+        List<Path> objects = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(objectsDir)) {
+            for (Path object : stream) {
+                if (Files.isRegularFile(object)) {
+                    objects.add(object);
+                    total += Files.size(object);
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        objects.sort(Comparator.comparingLong(DownloadCache::modifiedMillis));
+        for (Path object : objects) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!object.equals(keep)) {
+                total -= Files.size(object);
+                Files.deleteIfExists(object);
+                DownloadMetrics.CACHE_EVICTIONS.increment();
+            }
+        }
+    }
+
+    private static long modifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 让 target 成为 object 的硬链接 (或副本)，target 已经是同一个文件时什么都不做
+     */
+    private static void materialize(Path object, Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(object, target)) {
+            return;
+        }
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(),
+                ".tmp");
+        try {
+            Files.delete(temp);
+            link(temp, object);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 创建硬链接 link 指向 existing；跨文件系统或不支持硬链接时复制
+     */
+    private static void link(Path link, Path existing) throws IOException {
+        try {
+            Files.createLink(link, existing);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(existing, link);
+        }
+    }
+
+    /**
+     * 写文件前调用：path 可能是缓存对象的硬链接，原地截断或改写会连带改坏缓存和其他输出文件。
+     * 删除这个路径只去掉一个链接，之后新建的文件与缓存无关
+     */
+    static void unlink(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static String sha256(String text) {
+        MessageDigest digest = IntegrityVerifier.newDigest("SHA-256");
+        return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,138 @@
+package io.lazydog;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * 下载流水线的自定义 JFR 事件。用 -XX:StartFlightRecording 启动即可在生产环境录制，不需要调试器；
+ * 没有录制时这些事件几乎没有开销。事件名都以 io.lazydog. 开头。
+ */
+final class DownloadEvents {
+
+    private DownloadEvents() {
+    }
+
+    @Name("io.lazydog.Download")
+    @Label("Download")
+    @Category({"LazyDog", "Download"})
+    @Description("一次完整的下载 (可能包含多个传输)")
+    @StackTrace(false)
+    static final class Download extends Event {
+        @Label("URL")
+        String url;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("io.lazydog.Transfer")
+    @Label("Transfer")
+    @Category({"LazyDog", "Download"})
+    @Description("一次 GET 请求：一个分段或整个文件")
+    @StackTrace(false)
+    static final class Transfer extends Event {
+        @Label("URL")
+        String url;
+
+        @Label("Range")
+        String range;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Time To First Byte")
+        @Timespan
+        long ttfb;
+
+        @Label("Stall Time")
+        @Timespan
+        long stall;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("io.lazydog.Request")
+    @Label("Request")
+    @Category({"LazyDog", "Download"})
+    @Description("探测 (HEAD) 或整体读入内存的小请求 (播放列表、HLS 分片)")
+    @StackTrace(false)
+    static final class Request extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("URL")
+        String url;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("io.lazydog.DnsLookup")
+    @Label("DNS Lookup")
+    @Category({"LazyDog", "Network"})
+    @StackTrace(false)
+    static final class DnsLookup extends Event {
+        @Label("Host")
+        String host;
+    }
+
+    @Name("io.lazydog.Connect")
+    @Label("Connect")
+    @Category({"LazyDog", "Network"})
+    @Description("建立新连接，HTTPS 时包含 TLS 握手")
+    @StackTrace(false)
+    static final class Connect extends Event {
+        @Label("Host")
+        String host;
+    }
+
+    @Name("io.lazydog.DiskWrite")
+    @Label("Disk Write")
+    @Category({"LazyDog", "Disk"})
+    @Description("一批下载数据写入文件，默认只记录超过 10 ms 的慢写")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class DiskWrite extends Event {
+        @Label("Position")
+        long position;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("io.lazydog.Retry")
+    @Label("Retry")
+    @Category({"LazyDog", "Download"})
+    @StackTrace(false)
+    static final class Retry extends Event {
+        @Label("URL")
+        String url;
+
+        @Label("Reason")
+        String reason;
+    }
+}
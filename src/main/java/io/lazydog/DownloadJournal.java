@@ -0,0 +1,212 @@
+package io.lazydog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * 断点续传日志：保存在输出文件旁边的 ".journal" 文件，记录已完成的字节区间和服务器校验值 (ETag/Last-Modified)。
+ * 下载重启时，只有文件大小和校验值都与服务器一致，才会复用已下载的部分。
+ */
+final class DownloadJournal {
+
+    private static final String SUFFIX = ".journal";
+
+    /**
+     * 两次落盘之间的最小间隔，避免每个检查点都写一次磁盘
+     */
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+
+    private final File journalFile;
+    private final long contentLength;
+    private final String etag;
+    private final String lastModified;
+    /**
+     * 已完成区间，key 为起始偏移，value 为结束偏移 (包含)，相邻区间会被合并
+     */
+    private final TreeMap<Long, Long> completed = new TreeMap<>();
+    private long lastSaveMillis;
+
+    private DownloadJournal(File journalFile, long contentLength, String etag, String lastModified) {
+        this.journalFile = journalFile;
+        this.contentLength = contentLength;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    static File journalFileFor(File outputFile) {
+        return new File(outputFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * 为一次全新的下载创建日志，会覆盖旧的日志文件
+     */
+    static DownloadJournal create(File outputFile, RemoteFileInfo info) {
+        return new DownloadJournal(journalFileFor(outputFile), info.getContentLength(),
+                info.getEtag(), info.getLastModified());
+    }
+
+    /**
+     * 读取输出文件对应的日志
+     * @return 日志不存在或已损坏时返回 null
+     */
+    static DownloadJournal load(File outputFile) {
+        File journalFile = journalFileFor(outputFile);
+        if (!journalFile.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(journalFile.toPath())) {
+            props.load(in);
+            DownloadJournal journal = new DownloadJournal(journalFile,
+                    Long.parseLong(props.getProperty("length")),
+                    props.getProperty("etag"),
+                    props.getProperty("lastModified"));
+            String ranges = props.getProperty("ranges", "");
+            for (String range : ranges.split(",")) {
+                if (range.isEmpty()) {
+                    continue;
+                }
+                int dash = range.indexOf('-');
+                journal.markCompleted(Long.parseLong(range.substring(0, dash)),
+                        Long.parseLong(range.substring(dash + 1)));
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            // 日志损坏时当作没有日志，重新下载
+            return null;
+        }
+    }
+
+    /**
+     * @return 用于 If-Range 的校验值：优先强 ETag，其次 Last-Modified；都没有时返回 null，表示无法安全续传
+     */
+    public String getIfRangeValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * 判断服务器上的文件是否还是日志记录时的那个版本
+     */
+    public boolean matches(RemoteFileInfo info) {
+        if (getIfRangeValidator() == null || info.getContentLength() != contentLength) {
+            return false;
+        }
+        return equalsNullable(etag, info.getEtag()) && equalsNullable(lastModified, info.getLastModified());
+    }
+
+    /**
+     * 记录 [start, end] 已经写入磁盘
+     */
+    public synchronized void markCompleted(long start, long end) {
+        if (end < start) {
+            return;
+        }
+        // 与前面相交或相邻的区间合并
+        Map.Entry<Long, Long> floor = completed.floorEntry(start);
+        if (floor != null && floor.getValue() >= start - 1) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        // 吞掉后面被覆盖或相邻的区间
+        Map.Entry<Long, Long> next = completed.ceilingEntry(start);
+        while (next != null && next.getKey() <= end + 1) {
+            end = Math.max(end, next.getValue());
+            completed.remove(next.getKey());
+            next = completed.ceilingEntry(start);
+        }
+        completed.put(start, end);
+    }
+
+    public synchronized long completedBytes() {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : completed.entrySet()) {
+            total += entry.getValue() - entry.getKey() + 1;
+        }
+        return total;
+    }
+
+    /**
+     * @return 尚未下载的区间，按偏移升序
+     */
+    public synchronized List<ByteRange> missingRanges() {
+        List<ByteRange> missing = new ArrayList<>();
+        long next = 0;
+        for (Map.Entry<Long, Long> entry : completed.entrySet()) {
+            if (entry.getKey() > next) {
+                missing.add(new ByteRange(next, entry.getKey() - 1));
+            }
+            next = entry.getValue() + 1;
+        }
+        if (next < contentLength) {
+            missing.add(new ByteRange(next, contentLength - 1));
+        }
+        return missing;
+    }
+
+    /**
+     * 距上次落盘超过 {@link #SAVE_INTERVAL_MILLIS} 时才写盘
+     */
+    public void saveIfDue() throws IOException {
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastSaveMillis < SAVE_INTERVAL_MILLIS) {
+                return;
+            }
+        }
+        save();
+    }
+
+    /**
+     * 先写临时文件再原子替换，避免进程中途退出留下半个日志
+     */
+    public synchronized void save() throws IOException {
+        if (getIfRangeValidator() == null) {
+            // 没有校验值，续传不安全，不落盘
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty("length", Long.toString(contentLength));
+        if (etag != null) {
+            props.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            props.setProperty("lastModified", lastModified);
+        }
+        StringBuilder ranges = new StringBuilder();
+        for (Map.Entry<Long, Long> entry : completed.entrySet()) {
+            if (ranges.length() > 0) {
+                ranges.append(',');
+            }
+            ranges.append(entry.getKey()).append('-').append(entry.getValue());
+        }
+        props.setProperty("ranges", ranges.toString());
+
+        Path target = journalFile.toPath();
+        Path temp = target.resolveSibling(journalFile.getName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            props.store(out, "download journal");
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastSaveMillis = System.currentTimeMillis();
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(journalFile.toPath());
+    }
+
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,426 @@
+package io.lazydog;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 长期存在的下载管理器：持有一个共享的传输引擎 (连接池)，把下载任务排队放到虚拟线程上执行，
+ * 并限制全局和每个主机的并发下载数。任务状态变化通过 {@link DownloadListener} 通知出去。
+ * <p>
+ * 下载内部的分段传输再经过 {@link AdaptiveTransferEngine}，按各主机的吞吐、错误和延迟自动调整并发连接数，
+ * 当前的值可以用 {@link #getHostStatus()} 查看。
+ */
+public class DownloadManager implements Closeable {
+
+    public enum DownloadState {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * 任务状态变化回调，在执行下载的线程上调用
+     */
+    public interface DownloadListener {
+        void stateChanged(DownloadTask task);
+    }
+
+    public static class DownloadTask {
+        private final long id;
+        private final String url;
+        private final File outputFile;
+        private volatile DownloadState state = DownloadState.QUEUED;
+        private volatile Throwable error;
+        private volatile DownloadResult result;
+        private volatile long startedNanos;
+        private volatile long finishedNanos;
+        private volatile int priority = BandwidthScheduler.DEFAULT_WEIGHT;
+        private volatile BandwidthScheduler.Share share;
+
+        DownloadTask(long id, String url, File outputFile) {
+            this.id = id;
+            this.url = url;
+            this.outputFile = outputFile;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+
+        public DownloadState getState() {
+            return state;
+        }
+
+        /**
+         * @return 失败原因，只有 FAILED 状态才有值
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return 大小和摘要，只有 DONE 状态才有值
+         */
+        public DownloadResult getResult() {
+            return result;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * 修改带宽分配的权重，可以在排队或下载过程中随时调用；正在下载时立即生效
+         *
+         * @param priority 1 到 1000，默认 10；同时进行的下载按这个比例分配带宽
+         */
+        public void setPriority(int priority) {
+            if (priority < 1 || priority > BandwidthScheduler.MAX_WEIGHT) {
+                throw new IllegalArgumentException("Priority must be between 1 and "
+                        + BandwidthScheduler.MAX_WEIGHT + ": " + priority);
+            }
+            this.priority = priority;
+            BandwidthScheduler.Share current = share;
+            if (current != null) {
+                current.setWeight(priority);
+            }
+        }
+
+        /**
+         * @return 正在下载时分到的速率 (字节/秒)，不限速或不在下载时为 0
+         */
+        public long getBandwidth() {
+            BandwidthScheduler.Share current = share;
+            return current == null ? 0 : current.getRate();
+        }
+
+        /**
+         * @return 从开始运行 (不含排队) 到结束或当前时刻经过的纳秒数，未开始时为 0
+         */
+        public long getElapsedNanos() {
+            if (startedNanos == 0) {
+                return 0;
+            }
+            return (finishedNanos == 0 ? System.nanoTime() : finishedNanos) - startedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "DownloadTask{" +
+                    "id=" + id +
+                    ", url='" + url + '\'' +
+                    ", state=" + state +
+                    '}';
+        }
+    }
+
+    /**
+     * 一个主机上的并发传输情况，见 {@link #getHostStatus()}
+     */
+    public static final class HostStatus {
+        private final String host;
+        private final int limit;
+        private final int active;
+        private final int queued;
+        private final long bytesPerSecond;
+
+        HostStatus(String host, int limit, int active, int queued, long bytesPerSecond) {
+            this.host = host;
+            this.limit = limit;
+            this.active = active;
+            this.queued = queued;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return 控制器当前允许的并发传输数
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return 最近一个调整周期内这个主机的合计速度
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "HostStatus{" +
+                    "host='" + host + '\'' +
+                    ", limit=" + limit +
+                    ", active=" + active +
+                    ", queued=" + queued +
+                    ", bytesPerSecond=" + bytesPerSecond +
+                    '}';
+        }
+    }
+
+    /**
+     * 批量提取时同时获取和解析的页面数，以及缓存的页面数
+     */
+    private static final int SCRAPE_PARALLELISM = 16;
+    private static final int SCRAPE_CACHE_SIZE = 10_000;
+
+    /**
+     * 结束的任务最多保留这么多个，供 {@link #getTasks()} 查看
+     */
+    private static final int HISTORY_SIZE = 1000;
+
+    private final TransferEngine engine;
+    private final AdaptiveTransferEngine transfers;
+    private final TransferEngine pageEngine;
+    private final VideoDownloader downloader;
+    private final PageScraper scraper;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore globalPermits;
+    private final int maxPerHost;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    // 排队和进行中的任务，结束后移到 history
+    private final ConcurrentHashMap<Long, DownloadTask> activeTasks = new ConcurrentHashMap<>();
+    // 最近结束的任务，超过 HISTORY_SIZE 个时丢弃最早的；在持有 history 的锁时读写
+    private final ArrayDeque<DownloadTask> history = new ArrayDeque<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    /**
+     * @param maxConcurrent 全局同时进行的下载数
+     * @param maxPerHost    同一主机同时进行的下载数
+     * @param segmentCount  每个下载的分段数
+     */
+    public DownloadManager(int maxConcurrent, int maxPerHost, int segmentCount) {
+        this(maxConcurrent, maxPerHost, segmentCount, false);
+    }
+
+    /**
+     * @param asyncEngine 为 true 时使用基于 java.net.http 的异步 HTTP/2 引擎，
+     *                    否则使用 HttpClient 4.x 连接池的阻塞引擎
+     */
+    public DownloadManager(int maxConcurrent, int maxPerHost, int segmentCount, boolean asyncEngine) {
+        this(maxConcurrent, maxPerHost, segmentCount, asyncEngine, null);
+    }
+
+    /**
+     * @param cacheDir 下载缓存目录，为 null 时不使用缓存；同一 URL 的并发下载只在启用缓存时合并。
+     *                 缓存最多占用 {@link DownloadCache#DEFAULT_MAX_BYTES}，超出时删除最早的内容
+     */
+    public DownloadManager(int maxConcurrent, int maxPerHost, int segmentCount, boolean asyncEngine,
+                           File cacheDir) {
+        if (maxConcurrent < 1 || maxPerHost < 1 || segmentCount < 1) {
+            throw new IllegalArgumentException("Limits must be >= 1");
+        }
+        this.globalPermits = new Semaphore(maxConcurrent, true);
+        this.maxPerHost = maxPerHost;
+        this.engine = asyncEngine
+                ? new JdkTransferEngine()
+                : createBlockingEngine(maxConcurrent, maxPerHost, segmentCount);
+        // 每个主机的并发传输数从一个下载的分段数开始自动调整，最多到连接池里每个主机的连接数
+        transfers = new AdaptiveTransferEngine(engine, segmentCount, maxPerHost * segmentCount);
+        downloader = new VideoDownloader(transfers, segmentCount, VideoDownloader.DEFAULT_BUFFER_SIZE,
+                cacheDir == null ? null : new DownloadCache(cacheDir, DownloadCache.DEFAULT_MAX_BYTES));
+        // 阻塞引擎在虚拟线程上等连接池时会钉住载体线程，网页另用一个连接数与提取并发数相同的池，永远不用等
+        pageEngine = asyncEngine ? engine : createBlockingEngine(SCRAPE_PARALLELISM, SCRAPE_PARALLELISM, 1);
+        scraper = new PageScraper(InstrumentedTransferEngine.wrap(pageEngine), SCRAPE_PARALLELISM, SCRAPE_CACHE_SIZE);
+    }
+
+    private static TransferEngine createBlockingEngine(int maxConcurrent, int maxPerHost, int segmentCount) {
+        // 每个下载最多同时占用 segmentCount 个连接
+        PoolingHttpClientConnectionManager connectionManager = ApacheTransferEngine.newConnectionManager();
+        connectionManager.setMaxTotal(maxConcurrent * segmentCount);
+        connectionManager.setDefaultMaxPerRoute(maxPerHost * segmentCount);
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .build();
+        return ApacheTransferEngine.wrap(client, VideoDownloader.DEFAULT_BUFFER_SIZE);
+    }
+
+    public void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 分段失败或卡住时的重试次数，对之后开始的下载生效
+     */
+    public void setMaxRetries(int maxRetries) {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        downloader.setRetryPolicy(maxRetries == policy.getMaxRetries()
+                ? policy
+                : new RetryPolicy(maxRetries, policy.getBaseDelayMillis(), policy.getMaxDelayMillis()));
+    }
+
+    /**
+     * @see VideoDownloader#setHedging(boolean)
+     */
+    public void setHedging(boolean hedging) {
+        downloader.setHedging(hedging);
+    }
+
+    /**
+     * 所有下载 (包括其他 DownloadManager 和直接使用 VideoDownloader 的下载) 合计的速率上限，立即生效
+     *
+     * @param bytesPerSecond 0 表示不限
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        BandwidthScheduler.GLOBAL.setTotalLimit(bytesPerSecond);
+    }
+
+    /**
+     * 某个主机上所有下载合计的速率上限，立即生效
+     *
+     * @param bytesPerSecond 0 表示取消这个主机的上限
+     */
+    public void setHostBandwidthLimit(String host, long bytesPerSecond) {
+        BandwidthScheduler.GLOBAL.setHostLimit(host, bytesPerSecond);
+    }
+
+    /**
+     * 把下载加入队列，立即返回；任务先等待所在主机的名额，再等待全局名额
+     */
+    public DownloadTask submit(String url, File outputFile, ProgressCallback callback) {
+        DownloadTask task = new DownloadTask(nextId.getAndIncrement(), url, outputFile);
+        activeTasks.put(task.id, task);
+        fireStateChanged(task);
+        executor.execute(() -> run(task, callback));
+        return task;
+    }
+
+    /**
+     * 从一批网页中提取视频地址，与下载共用连接池；阻塞到所有页面处理完，结果按输入顺序排列
+     */
+    List<PageScraper.PageResult> extractVideoUrls(List<String> pageUrls) {
+        return scraper.scrapeAll(pageUrls);
+    }
+
+    /**
+     * @return 每个下载过的主机当前的并发传输上限、进行中和排队的传输数，按主机名排序
+     */
+    public List<HostStatus> getHostStatus() {
+        return transfers.getHostStatus();
+    }
+
+    /**
+     * @return 排队和进行中的任务，加上最近结束的至多 1000 个任务的快照，按提交顺序
+     */
+    public List<DownloadTask> getTasks() {
+        // 任务结束时先进 history 再离开 activeTasks，按 id 去重
+        TreeMap<Long, DownloadTask> snapshot = new TreeMap<>();
+        synchronized (history) {
+            for (DownloadTask task : history) {
+                snapshot.put(task.id, task);
+            }
+        }
+        for (DownloadTask task : activeTasks.values()) {
+            snapshot.put(task.id, task);
+        }
+        return new ArrayList<>(snapshot.values());
+    }
+
+    private void run(DownloadTask task, ProgressCallback callback) {
+        // 先拿主机名额再拿全局名额，避免等某个主机时白白占住全局名额
+        String host = VideoDownloader.hostOf(task.url);
+        Semaphore hostPermit = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxPerHost, true));
+        try {
+            hostPermit.acquire();
+            try {
+                globalPermits.acquire();
+                try (BandwidthScheduler.Share share = BandwidthScheduler.GLOBAL.register(host, task.priority)) {
+                    task.share = share;
+                    // 登记期间优先级可能刚被修改过
+                    share.setWeight(task.priority);
+                    setState(task, DownloadState.RUNNING);
+                    task.result = downloader.downloadWithProgress(task.url, task.outputFile, callback, share);
+                    setState(task, DownloadState.DONE);
+                } finally {
+                    task.share = null;
+                    globalPermits.release();
+                }
+            } finally {
+                hostPermit.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.error = e;
+            setState(task, DownloadState.FAILED);
+        } catch (IOException | RuntimeException e) {
+            task.error = e;
+            setState(task, DownloadState.FAILED);
+        }
+    }
+
+    private void setState(DownloadTask task, DownloadState state) {
+        if (state == DownloadState.RUNNING) {
+            task.startedNanos = System.nanoTime();
+        } else if (state == DownloadState.DONE || state == DownloadState.FAILED) {
+            task.finishedNanos = System.nanoTime();
+        }
+        task.state = state;
+        if (state == DownloadState.DONE || state == DownloadState.FAILED) {
+            synchronized (history) {
+                history.addLast(task);
+                if (history.size() > HISTORY_SIZE) {
+                    history.removeFirst();
+                }
+            }
+            activeTasks.remove(task.id);
+        }
+        fireStateChanged(task);
+    }
+
+    private void fireStateChanged(DownloadTask task) {
+        for (DownloadListener listener : listeners) {
+            listener.stateChanged(task);
+        }
+    }
+
+    /**
+     * 中断所有排队和进行中的下载，并关闭连接池
+     */
+    @Override
+    public void close() throws IOException {
+        scraper.close();
+        executor.shutdownNow();
+        transfers.close();
+        if (pageEngine != engine) {
+            pageEngine.close();
+        }
+    }
+}
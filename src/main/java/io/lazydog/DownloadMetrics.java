@@ -0,0 +1,86 @@
+package io.lazydog;
+
+/**
+ * 下载流水线的指标，全部登记在同一个进程内注册表里。
+ * 时间类直方图记录纳秒、按毫秒输出；速度直方图记录字节/秒、按 MB/s 输出。
+ */
+public final class DownloadMetrics {
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    private static final double NANOS_TO_MILLIS = 1e-6;
+    private static final double BYTES_TO_MB = 1.0 / 1024 / 1024;
+
+    /**
+     * 两次收到数据的间隔超过这个值记为一次卡顿
+     */
+    static final long STALL_THRESHOLD_NANOS = 500_000_000L;
+
+    static final MetricsRegistry.Counter HTTP_REQUESTS = REGISTRY.counter("http.requests");
+    static final MetricsRegistry.Counter CONNECTIONS_OPENED = REGISTRY.counter("http.connections.opened");
+    static final MetricsRegistry.Histogram DNS = REGISTRY.histogram("http.dns", "ms", NANOS_TO_MILLIS);
+    static final MetricsRegistry.Histogram CONNECT = REGISTRY.histogram("http.connect", "ms", NANOS_TO_MILLIS);
+    static final MetricsRegistry.Histogram HEAD = REGISTRY.histogram("http.head", "ms", NANOS_TO_MILLIS);
+
+    static final MetricsRegistry.Histogram TTFB = REGISTRY.histogram("transfer.ttfb", "ms", NANOS_TO_MILLIS);
+    static final MetricsRegistry.Histogram TRANSFER_RATE =
+            REGISTRY.histogram("transfer.rate", "MB/s", BYTES_TO_MB);
+    static final MetricsRegistry.Counter TRANSFER_BYTES = REGISTRY.counter("transfer.bytes");
+    static final MetricsRegistry.Counter TRANSFERS_FAILED = REGISTRY.counter("transfer.failed");
+    static final MetricsRegistry.Histogram STALL = REGISTRY.histogram("transfer.stall", "ms", NANOS_TO_MILLIS);
+    static final MetricsRegistry.Histogram THROTTLE = REGISTRY.histogram("transfer.throttle", "ms", NANOS_TO_MILLIS);
+
+    static final MetricsRegistry.Histogram DISK_WRITE = REGISTRY.histogram("disk.write", "ms", NANOS_TO_MILLIS);
+
+    static final MetricsRegistry.Counter DOWNLOADS = REGISTRY.counter("download.completed");
+    static final MetricsRegistry.Counter DOWNLOADS_FAILED = REGISTRY.counter("download.failed");
+    static final MetricsRegistry.Counter RETRIES = REGISTRY.counter("download.retries");
+    static final MetricsRegistry.Counter HEDGES = REGISTRY.counter("download.hedges");
+    static final MetricsRegistry.Histogram DOWNLOAD_RATE =
+            REGISTRY.histogram("download.rate", "MB/s", BYTES_TO_MB);
+
+    static final MetricsRegistry.Counter CACHE_HITS = REGISTRY.counter("cache.hits");
+    static final MetricsRegistry.Counter CACHE_MISSES = REGISTRY.counter("cache.misses");
+    static final MetricsRegistry.Counter CACHE_JOINED = REGISTRY.counter("cache.joined");
+    static final MetricsRegistry.Counter CACHE_EVICTIONS = REGISTRY.counter("cache.evictions");
+
+    static {
+        // 只有阻塞引擎能看到新建连接，异步引擎的连接由 java.net.http 内部管理
+        REGISTRY.gauge("http.connections.reuse", () -> {
+            long requests = HTTP_REQUESTS.get();
+            long opened = CONNECTIONS_OPENED.get();
+            return requests == 0 || opened == 0 ? 0 : Math.max(0, 1 - (double) opened / requests);
+        });
+    }
+
+    private DownloadMetrics() {
+    }
+
+    public static MetricsRegistry registry() {
+        return REGISTRY;
+    }
+
+    /**
+     * 记录一批数据写盘的耗时
+     * @param event 写之前 begin 过的事件
+     */
+    static void diskWrite(DownloadEvents.DiskWrite event, long startNanos, long position, long bytes) {
+        DISK_WRITE.record(System.nanoTime() - startNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.position = position;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    static void retry(String url, String reason) {
+        RETRIES.increment();
+        DownloadEvents.Retry event = new DownloadEvents.Retry();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
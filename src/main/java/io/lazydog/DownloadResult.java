@@ -0,0 +1,43 @@
+package io.lazydog;
+
+/**
+ * 一次成功下载的结果：文件大小和边下载边算出的摘要
+ */
+public final class DownloadResult {
+    private final long size;
+    private final String sha256;
+    private final String md5;
+
+    public DownloadResult(long size, String sha256, String md5) {
+        this.size = size;
+        this.sha256 = sha256;
+        this.md5 = md5;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return 小写十六进制的 SHA-256
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * @return 小写十六进制的 MD5，服务器没有给出可比对的 MD5 时不计算，为 null
+     */
+    public String getMd5() {
+        return md5;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadResult{" +
+                "size=" + size +
+                ", sha256='" + sha256 + '\'' +
+                ", md5='" + md5 + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,157 @@
+package io.lazydog;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 每个下载一行的表格模型：文件、状态、进度、速度、剩余时间。
+ * <p>
+ * 下载线程只更新行对象上的 volatile 字段并把行标记为脏，由一次 EDT 任务批量处理；
+ * 处理时重新计算这一行要显示的内容，只有和上次显示的不同才触发该行的更新事件，
+ * 几百个排队中的下载不会引起任何重绘。
+ */
+final class DownloadTableModel extends AbstractTableModel {
+
+    static final int COLUMN_NAME = 0;
+    static final int COLUMN_STATUS = 1;
+    static final int COLUMN_PROGRESS = 2;
+    static final int COLUMN_SPEED = 3;
+    static final int COLUMN_ETA = 4;
+
+    private static final String[] COLUMNS = {"文件", "状态", "进度", "速度", "剩余时间"};
+
+    /**
+     * 表格中的一行。setter 可以在任意线程调用
+     */
+    final class Row {
+        private final String name;
+        private volatile String status = "等待中";
+        private volatile int percent;
+        private volatile ProgressSnapshot snapshot;
+        private volatile boolean finished;
+        private boolean dirty;
+        // 以下字段只在 EDT 上访问
+        private int index = -1;
+        private Object[] shown;
+
+        private Row(String name) {
+            this.name = name;
+        }
+
+        void setStatus(String status) {
+            this.status = status;
+            markDirty(this);
+        }
+
+        void setPercent(int percent) {
+            this.percent = percent;
+            markDirty(this);
+        }
+
+        void setSnapshot(ProgressSnapshot snapshot) {
+            this.snapshot = snapshot;
+            this.percent = snapshot.getPercent();
+            markDirty(this);
+        }
+
+        /**
+         * 下载结束，速度和剩余时间不再显示
+         */
+        void finish(String status, int percent) {
+            this.finished = true;
+            this.percent = percent;
+            this.status = status;
+            markDirty(this);
+        }
+
+        private Object[] render() {
+            ProgressSnapshot current = snapshot;
+            boolean running = !finished && current != null;
+            return new Object[]{
+                    name,
+                    status,
+                    percent,
+                    running ? String.format("%.1f MB/s", current.getBytesPerSecond() / 1024 / 1024) : "",
+                    running && current.getEtaSeconds() >= 0
+                            ? String.format("%02d:%02d", current.getEtaSeconds() / 60, current.getEtaSeconds() % 60)
+                            : ""
+            };
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Row> dirtyRows = new ConcurrentLinkedQueue<>();
+    private final EdtBatcher batcher = new EdtBatcher(this::flush);
+
+    /**
+     * 新建一行，可以在任意线程调用，行在下一次刷新时出现在表格末尾
+     */
+    Row addRow(String name) {
+        Row row = new Row(name);
+        markDirty(row);
+        return row;
+    }
+
+    private void markDirty(Row row) {
+        synchronized (row) {
+            if (row.dirty) {
+                return;
+            }
+            row.dirty = true;
+        }
+        dirtyRows.add(row);
+        batcher.request();
+    }
+
+    private void flush() {
+        int firstNew = rows.size();
+        Row row;
+        while ((row = dirtyRows.poll()) != null) {
+            synchronized (row) {
+                row.dirty = false;
+            }
+            if (row.index < 0) {
+                row.index = rows.size();
+                rows.add(row);
+            }
+            Object[] values = row.render();
+            if (row.index < firstNew && !Arrays.equals(values, row.shown)) {
+                row.shown = values;
+                fireTableRowsUpdated(row.index, row.index);
+            } else {
+                row.shown = values;
+            }
+        }
+        if (rows.size() > firstNew) {
+            fireTableRowsInserted(firstNew, rows.size() - 1);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == COLUMN_PROGRESS ? Integer.class : String.class;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        return rows.get(rowIndex).shown[columnIndex];
+    }
+}
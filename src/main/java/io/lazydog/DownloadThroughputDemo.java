@@ -0,0 +1,104 @@
+package io.lazydog;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * 对比原来的 4 KB byte[] + OutputStream 复制循环与 VideoDownloader 新写入路径在本地服务器上的吞吐。
+ * 用法: DownloadThroughputDemo [大小MB] [轮数]
+ */
+public class DownloadThroughputDemo {
+
+    private static final ProgressCallback SILENT = new ProgressCallback() {
+        @Override
+        public void update(int progress) {
+        }
+
+        @Override
+        public void log(String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long size = sizeMb * 1024L * 1024L;
+        int[] bufferSizes = {4 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+        File outputFile = File.createTempFile("throughput", ".bin");
+        outputFile.deleteOnExit();
+
+        try (SyntheticHttpServer server = new SyntheticHttpServer(false, 0);
+             CloseableHttpClient client = HttpClients.createDefault()) {
+            String url = server.urlFor(size);
+
+            // 第一轮只用于预热，不计入结果
+            double best = 0;
+            for (int round = 0; round <= rounds; round++) {
+                long start = System.nanoTime();
+                legacyCopy(client, url, outputFile);
+                if (round > 0) {
+                    best = Math.max(best, throughput(size, start));
+                }
+            }
+            System.out.printf("旧实现 (4 KB byte[] + OutputStream): %.0f MB/s%n", best);
+
+            for (int bufferSize : bufferSizes) {
+                VideoDownloader downloader = new VideoDownloader(client, 1, bufferSize);
+                best = 0;
+                for (int round = 0; round <= rounds; round++) {
+                    long start = System.nanoTime();
+                    downloader.downloadWithProgress(url, outputFile, SILENT);
+                    if (round > 0) {
+                        best = Math.max(best, throughput(size, start));
+                    }
+                }
+                System.out.printf("新实现 (FileChannel, 缓冲区 %d KB): %.0f MB/s%n", bufferSize / 1024, best);
+            }
+            verify(outputFile, size);
+        }
+    }
+
+    /**
+     * 原来 VideoDownloader 中的复制循环，作为对照
+     */
+    private static void legacyCopy(CloseableHttpClient client, String url, File outputFile) throws IOException {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url));
+             InputStream inputStream = response.getEntity().getContent();
+             OutputStream outputStream = Files.newOutputStream(outputFile.toPath())) {
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    private static double throughput(long size, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return size / 1024.0 / 1024.0 / seconds;
+    }
+
+    private static void verify(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() != size) {
+                throw new IOException("文件大小不符: " + raf.length());
+            }
+            for (long position : new long[]{0, size / 2, size - 1}) {
+                raf.seek(position);
+                if ((byte) raf.read() != SyntheticHttpServer.valueAt(position)) {
+                    throw new IOException("文件内容不符, 位置 " + position);
+                }
+            }
+        }
+    }
+}
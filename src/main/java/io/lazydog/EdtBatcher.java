@@ -0,0 +1,27 @@
+package io.lazydog;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把任意线程上的多次刷新请求合并成一次 EDT 任务：已经排了一个还没执行时，新的请求不再排队。
+ * flush 执行前先清掉标记，执行期间到来的请求会再排一次，不会丢更新。
+ */
+final class EdtBatcher {
+
+    private final Runnable flush;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    EdtBatcher(Runnable flush) {
+        this.flush = flush;
+    }
+
+    void request() {
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                scheduled.set(false);
+                flush.run();
+            });
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.lazydog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界的 LRU 缓存，条目另有有效期：超过条目数时淘汰最久没有访问的条目，过期的条目在读到时删除。
+ * 所有操作在同一把锁里完成，适合条目不多、读写都很快的场景。
+ */
+final class ExpiringLruCache<K, V> {
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlNanos;
+    private final Map<K, Entry<V>> entries;
+
+    /**
+     * @param maxEntries 最多保存的条目数
+     * @param ttlMillis  条目的有效期，从放入时开始计算
+     */
+    ExpiringLruCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Invalid cache limits");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return 缓存的值；没有或已过期时返回 null
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package io.lazydog;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HLS 下载：选出带宽最高的变体，按有界窗口并发下载分片，再按顺序写入同一个输出文件。
+ * 同一时刻内存里最多只有窗口大小个分片，写完即释放。分片写完后按下载分到的带宽限速，
+ * 限速期间不再发出新的分片请求。
+ */
+class HlsDownloader {
+
+    private final TransferEngine engine;
+    private final int window;
+    private final BandwidthScheduler.Share share;
+
+    /**
+     * @param window 同时在下载 (或等待写入) 的分片数上限
+     * @param share  这个下载分到的带宽
+     */
+    HlsDownloader(TransferEngine engine, int window, BandwidthScheduler.Share share) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1");
+        }
+        this.engine = engine;
+        this.window = window;
+        this.share = share;
+    }
+
+    /**
+     * 判断 URL 或 Content-Type 是否指向 m3u8 播放列表
+     */
+    static boolean isPlaylist(String url, String contentType) {
+        if (contentType != null) {
+            String type = contentType.toLowerCase();
+            if (type.contains("mpegurl")) {
+                return true;
+            }
+        }
+        String path = URI.create(url).getPath();
+        return path != null && path.toLowerCase().endsWith(".m3u8");
+    }
+
+    /**
+     * @param playlistUri  播放列表地址
+     * @param playlistText 已经取回的播放列表内容
+     */
+    DownloadResult download(URI playlistUri, String playlistText, File outputFile, ProgressCallback callback)
+        throws IOException {
+        HlsPlaylist playlist = HlsPlaylist.parse(playlistText, playlistUri);
+        if (playlist.isMaster()) {
+            HlsPlaylist.Variant variant = playlist.bestVariant();
+            callback.log("选择码率: " + variant.getBandwidth() + " bps"
+                    + (variant.getResolution() == null ? "" : ", 分辨率: " + variant.getResolution()));
+            playlist = HlsPlaylist.parse(fetchText(variant.getUri()), variant.getUri());
+            if (playlist.isMaster()) {
+                throw new IOException("变体播放列表不能再嵌套变体");
+            }
+        }
+        if (!playlist.isEndList()) {
+            callback.log("直播流，只下载当前播放列表中的分片");
+        }
+
+        List<HlsPlaylist.Segment> segments = playlist.getSegments();
+        callback.log("HLS 分片数: " + segments.size() + ", 并发窗口: " + window);
+
+        ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        // 分片按顺序写入，摘要直接在内存里计算
+        IntegrityVerifier verifier = new IntegrityVerifier(false);
+        long startNanos = System.nanoTime();
+
+        // 输出文件可能是缓存对象的硬链接，先断开再写
+        DownloadCache.unlink(outputFile.toPath());
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            if (playlist.getInitSegment() != null) {
+                byte[] init = VideoDownloader.await(engine.fetchBytes(playlist.getInitSegment()));
+                verifier.update(position, ByteBuffer.wrap(init));
+                position = write(channel, init, position);
+            }
+
+            int next = 0;
+            while (next < segments.size() && pending.size() < window) {
+                pending.add(engine.fetchBytes(segments.get(next++).getUri()));
+            }
+
+            long downloaded = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                byte[] data = VideoDownloader.await(pending.poll());
+                // 先补上窗口再写盘，让网络一直有活干
+                if (next < segments.size()) {
+                    pending.add(engine.fetchBytes(segments.get(next++).getUri()));
+                }
+                verifier.update(position, ByteBuffer.wrap(data));
+                position = write(channel, data, position);
+                downloaded += data.length;
+                callback.update(snapshot(downloaded, i + 1, segments.size(), startNanos));
+                share.acquire(data.length);
+            }
+            return verifier.verify(position, null, null, callback);
+        } finally {
+            // 失败时取消窗口里还没写入的分片
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    String fetchText(URI uri) throws IOException {
+        return new String(VideoDownloader.await(engine.fetchBytes(uri)), StandardCharsets.UTF_8);
+    }
+
+    private static long write(FileChannel channel, byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * HLS 不知道总字节数，按已完成分片的平均大小估算
+     */
+    private static ProgressSnapshot snapshot(long downloaded, int done, int total, long startNanos) {
+        long estimatedTotal = done == total ? downloaded : downloaded / done * total;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double bytesPerSecond = seconds > 0 ? downloaded / seconds : 0;
+        long eta = bytesPerSecond > 0 ? (long) Math.ceil((estimatedTotal - downloaded) / bytesPerSecond) : -1;
+        return new ProgressSnapshot(downloaded, estimatedTotal, bytesPerSecond, eta);
+    }
+}
@@ -0,0 +1,228 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HLS (m3u8) 播放列表解析结果：主播放列表只有多个码率的变体，媒体播放列表才有分片
+ */
+final class HlsPlaylist {
+
+    static final String HEADER = "#EXTM3U";
+
+    static final class Variant {
+        private final URI uri;
+        private final long bandwidth;
+        private final String resolution;
+
+        Variant(URI uri, long bandwidth, String resolution) {
+            this.uri = uri;
+            this.bandwidth = bandwidth;
+            this.resolution = resolution;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public long getBandwidth() {
+            return bandwidth;
+        }
+
+        public String getResolution() {
+            return resolution;
+        }
+
+        @Override
+        public String toString() {
+            return "Variant{bandwidth=" + bandwidth + ", resolution=" + resolution + ", uri=" + uri + '}';
+        }
+    }
+
+    static final class Segment {
+        private final URI uri;
+        private final double durationSeconds;
+
+        Segment(URI uri, double durationSeconds) {
+            this.uri = uri;
+            this.durationSeconds = durationSeconds;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public double getDurationSeconds() {
+            return durationSeconds;
+        }
+    }
+
+    private final List<Variant> variants;
+    private final List<Segment> segments;
+    private final URI initSegment;
+    private final boolean endList;
+
+    private HlsPlaylist(List<Variant> variants, List<Segment> segments, URI initSegment, boolean endList) {
+        this.variants = Collections.unmodifiableList(variants);
+        this.segments = Collections.unmodifiableList(segments);
+        this.initSegment = initSegment;
+        this.endList = endList;
+    }
+
+    /**
+     * 判断一段文本是不是 m3u8 播放列表
+     */
+    static boolean looksLikePlaylist(String text) {
+        return text.stripLeading().startsWith(HEADER);
+    }
+
+    /**
+     * @param text    播放列表内容
+     * @param baseUri 播放列表自身的地址，用于解析相对路径
+     * @throws IOException 不是播放列表、格式有误，或者用到了不支持的加密或字节范围分片
+     */
+    static HlsPlaylist parse(String text, URI baseUri) throws IOException {
+        if (!looksLikePlaylist(text)) {
+            throw new IOException("不是 m3u8 播放列表");
+        }
+        List<Variant> variants = new ArrayList<>();
+        List<Segment> segments = new ArrayList<>();
+        URI initSegment = null;
+        boolean endList = false;
+
+        String pendingStreamInf = null;
+        double pendingDuration = -1;
+        for (String rawLine : text.split("\\r?\\n")) {
+            String line = rawLine.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                pendingStreamInf = line.substring("#EXT-X-STREAM-INF:".length());
+            } else if (line.startsWith("#EXTINF:")) {
+                String value = line.substring("#EXTINF:".length());
+                int comma = value.indexOf(',');
+                pendingDuration = parseNumber(line, comma >= 0 ? value.substring(0, comma) : value);
+            } else if (line.startsWith("#EXT-X-BYTERANGE:")) {
+                // 每个分片只是同一个文件的一段，按整个 URI 下载会把整个文件重复写很多遍
+                throw new IOException("不支持按字节范围切分的 HLS 流 (EXT-X-BYTERANGE)");
+            } else if (line.startsWith("#EXT-X-KEY:")) {
+                String method = attribute(line.substring("#EXT-X-KEY:".length()), "METHOD");
+                if (method != null && !method.equals("NONE")) {
+                    throw new IOException("不支持加密的 HLS 流: METHOD=" + method);
+                }
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                String attributes = line.substring("#EXT-X-MAP:".length());
+                if (attribute(attributes, "BYTERANGE") != null) {
+                    throw new IOException("不支持按字节范围指定的初始化分片 (EXT-X-MAP BYTERANGE)");
+                }
+                String uri = attribute(attributes, "URI");
+                if (uri != null) {
+                    initSegment = baseUri.resolve(uri);
+                }
+            } else if (line.equals("#EXT-X-ENDLIST")) {
+                endList = true;
+            } else if (!line.startsWith("#")) {
+                URI uri = baseUri.resolve(line);
+                if (pendingStreamInf != null) {
+                    String bandwidth = attribute(pendingStreamInf, "BANDWIDTH");
+                    long bits = bandwidth == null ? 0 : (long) parseNumber("#EXT-X-STREAM-INF:" + pendingStreamInf, bandwidth);
+                    variants.add(new Variant(uri, bits, attribute(pendingStreamInf, "RESOLUTION")));
+                    pendingStreamInf = null;
+                } else {
+                    segments.add(new Segment(uri, pendingDuration));
+                    pendingDuration = -1;
+                }
+            }
+        }
+        return new HlsPlaylist(variants, segments, initSegment, endList);
+    }
+
+    private static double parseNumber(String line, String value) throws IOException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("播放列表格式错误: " + line, e);
+        }
+    }
+
+    /**
+     * 从形如 KEY=VALUE,KEY="VALUE" 的属性列表中取值，引号内的逗号不作分隔
+     */
+    static String attribute(String attributes, String name) {
+        int i = 0;
+        while (i < attributes.length()) {
+            int eq = attributes.indexOf('=', i);
+            if (eq < 0) {
+                return null;
+            }
+            String key = attributes.substring(i, eq).trim();
+            int valueStart = eq + 1;
+            int valueEnd;
+            String value;
+            if (valueStart < attributes.length() && attributes.charAt(valueStart) == '"') {
+                int close = attributes.indexOf('"', valueStart + 1);
+                if (close < 0) {
+                    close = attributes.length();
+                }
+                value = attributes.substring(valueStart + 1, close);
+                valueEnd = Math.min(close + 1, attributes.length());
+            } else {
+                int comma = attributes.indexOf(',', valueStart);
+                valueEnd = comma < 0 ? attributes.length() : comma;
+                value = attributes.substring(valueStart, valueEnd).trim();
+            }
+            if (key.equals(name)) {
+                return value;
+            }
+            int comma = attributes.indexOf(',', valueEnd);
+            if (comma < 0) {
+                return null;
+            }
+            i = comma + 1;
+        }
+        return null;
+    }
+
+    public boolean isMaster() {
+        return !variants.isEmpty();
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return fMP4 流的初始化分片 (EXT-X-MAP)，没有时为 null
+     */
+    public URI getInitSegment() {
+        return initSegment;
+    }
+
+    /**
+     * @return 是否有 EXT-X-ENDLIST；没有说明是直播流，列表只是当前窗口
+     */
+    public boolean isEndList() {
+        return endList;
+    }
+
+    /**
+     * @return 带宽最高的变体
+     */
+    public Variant bestVariant() {
+        Variant best = null;
+        for (Variant variant : variants) {
+            if (best == null || variant.getBandwidth() > best.getBandwidth()) {
+                best = variant;
+            }
+        }
+        return best;
+    }
+}
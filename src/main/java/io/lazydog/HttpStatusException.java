@@ -0,0 +1,27 @@
+package io.lazydog;
+
+import java.io.IOException;
+
+/**
+ * 服务器返回了表示失败的状态码。429 和 503 说明服务器过载或在限流
+ */
+class HttpStatusException extends IOException {
+
+    private final int statusCode;
+
+    HttpStatusException(String message, int statusCode) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return 服务器是否在要求客户端放慢 (限流或暂时过载)
+     */
+    boolean isOverload() {
+        return statusCode == 429 || statusCode == 503;
+    }
+}
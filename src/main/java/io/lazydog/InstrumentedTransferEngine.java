@@ -0,0 +1,166 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 给任意传输引擎加上计时：首字节时间、传输速度、卡顿时间写入 {@link DownloadMetrics}，
+ * 每个请求提交一个 JFR 事件。关闭时一并关闭被包装的引擎。
+ */
+class InstrumentedTransferEngine implements TransferEngine {
+
+    private final TransferEngine delegate;
+
+    InstrumentedTransferEngine(TransferEngine delegate) {
+        this.delegate = delegate;
+    }
+
+    static TransferEngine wrap(TransferEngine engine) {
+        return engine instanceof InstrumentedTransferEngine ? engine : new InstrumentedTransferEngine(engine);
+    }
+
+    @Override
+    public RemoteFileInfo revalidate(String url, String etag, String lastModified) throws IOException {
+        DownloadMetrics.HTTP_REQUESTS.increment();
+        DownloadEvents.Request event = new DownloadEvents.Request();
+        event.begin();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            RemoteFileInfo info = delegate.revalidate(url, etag, lastModified);
+            succeeded = true;
+            return info;
+        } finally {
+            DownloadMetrics.HEAD.record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = "HEAD";
+                event.url = url;
+                event.succeeded = succeeded;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> transfer(TransferRequest request, TransferListener listener) {
+        DownloadMetrics.HTTP_REQUESTS.increment();
+        MeasuringListener measuring = new MeasuringListener(listener);
+        CompletableFuture<Long> future = delegate.transfer(request, measuring);
+        // 返回同一个 future，cancel 仍然能传到引擎
+        future.whenComplete((end, error) -> measuring.finish(request, error));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchBytes(URI uri) {
+        DownloadMetrics.HTTP_REQUESTS.increment();
+        DownloadEvents.Request event = new DownloadEvents.Request();
+        event.begin();
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> future = delegate.fetchBytes(uri);
+        future.whenComplete((data, error) -> {
+            long elapsed = System.nanoTime() - start;
+            if (data != null) {
+                DownloadMetrics.TRANSFER_BYTES.add(data.length);
+                if (elapsed > 0) {
+                    DownloadMetrics.TRANSFER_RATE.record((long) (data.length * 1e9 / elapsed));
+                }
+            } else {
+                DownloadMetrics.TRANSFERS_FAILED.increment();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = "GET";
+                event.url = uri.toString();
+                event.bytes = data == null ? 0 : data.length;
+                event.succeeded = data != null;
+                event.commit();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    /**
+     * 转发回调的同时记录首字节时间、字节数和卡顿。同一传输的回调不会并发，字段只需对 finish 可见
+     */
+    private static final class MeasuringListener implements TransferListener {
+        private final TransferListener delegate;
+        private final DownloadEvents.Transfer event = new DownloadEvents.Transfer();
+        private volatile long startNanos;
+        private volatile long ttfbNanos = -1;
+        private volatile long lastDataNanos;
+        private volatile long stallNanos;
+        private volatile long bytes;
+
+        MeasuringListener(TransferListener delegate) {
+            this.delegate = delegate;
+            event.begin();
+            startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void onStart() {
+            // 在自适应引擎里排队的时间不算首字节时间
+            startNanos = System.nanoTime();
+            delegate.onStart();
+        }
+
+        @Override
+        public void onResponse(long contentLength) throws IOException {
+            long now = System.nanoTime();
+            ttfbNanos = now - startNanos;
+            lastDataNanos = now;
+            DownloadMetrics.TTFB.record(ttfbNanos);
+            delegate.onResponse(contentLength);
+        }
+
+        @Override
+        public void onData(long position, ByteBuffer data) {
+            delegate.onData(position, data);
+        }
+
+        @Override
+        public void onWritten(long position, int written) throws IOException {
+            long now = System.nanoTime();
+            long gap = now - lastDataNanos;
+            if (gap > DownloadMetrics.STALL_THRESHOLD_NANOS) {
+                stallNanos += gap;
+                DownloadMetrics.STALL.record(gap);
+            }
+            bytes += written;
+            // 边传边累计，定期输出时能看到进行中的传输
+            DownloadMetrics.TRANSFER_BYTES.add(written);
+            delegate.onWritten(position, written);
+            // 从下游返回后再计时，下游的限速等待不算卡顿
+            lastDataNanos = System.nanoTime();
+        }
+
+        void finish(TransferRequest request, Throwable error) {
+            long elapsed = System.nanoTime() - startNanos;
+            if (error == null && elapsed > 0) {
+                DownloadMetrics.TRANSFER_RATE.record((long) (bytes * 1e9 / elapsed));
+            } else if (error != null) {
+                DownloadMetrics.TRANSFERS_FAILED.increment();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.url = request.getUrl();
+                event.range = request.getRange() == null ? null : request.getRange().toString();
+                event.bytes = bytes;
+                event.ttfb = ttfbNanos;
+                event.stall = stallNanos;
+                event.succeeded = error == null;
+                event.error = error == null ? null : String.valueOf(error.getMessage());
+                event.commit();
+            }
+        }
+    }
+}
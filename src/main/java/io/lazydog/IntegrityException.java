@@ -0,0 +1,12 @@
+package io.lazydog;
+
+import java.io.IOException;
+
+/**
+ * 下载完成后的完整性校验失败：大小与 Content-Length 不符，或摘要与服务器给出的 MD5 不符
+ */
+class IntegrityException extends IOException {
+    IntegrityException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,152 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * 边下载边计算 SHA-256 和 MD5，下载结束时校验大小和服务器给出的 MD5。
+ * <p>
+ * 摘要只能按文件顺序计算。写入位置正好接在已计算部分之后的数据直接在内存里计入；
+ * 分段下载时其余分段先落盘，等计算前沿追到它们时再从文件读回。
+ * 这时数据刚写入不久，通常还在页缓存里，不会像下载完再整体读一遍那样多一轮磁盘 I/O。
+ * <p>
+ * SHA-256 总是计算 (下载缓存按它去重)；MD5 只在服务器给出了可比对的值时才算，它在下载线程上的开销不小。
+ */
+final class IntegrityVerifier {
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final MessageDigest sha256 = newDigest("SHA-256");
+    private final MessageDigest md5;
+    /**
+     * [0, digested) 已计入摘要
+     */
+    private long digested;
+    private ByteBuffer readBuffer;
+
+    /**
+     * @param withMd5 是否同时计算 MD5
+     */
+    IntegrityVerifier(boolean withMd5) {
+        this.md5 = withMd5 ? newDigest("MD5") : null;
+    }
+
+    /**
+     * 服务器给出了 Content-MD5 或形似 MD5 的 ETag 时才计算 MD5
+     */
+    static IntegrityVerifier forRemote(RemoteFileInfo info) {
+        return new IntegrityVerifier(info.getContentMd5() != null || md5FromEtag(info.getEtag()) != null);
+    }
+
+    /**
+     * 即将写到 position 处的数据；不紧接计算前沿时忽略，之后由 {@link #catchUp} 从文件补上
+     */
+    synchronized void update(long position, ByteBuffer data) {
+        if (position != digested) {
+            return;
+        }
+        int start = data.position();
+        sha256.update(data);
+        if (md5 != null) {
+            data.position(start);
+            md5.update(data);
+        }
+        digested += data.position() - start;
+    }
+
+    synchronized long getDigested() {
+        return digested;
+    }
+
+    /**
+     * 从文件读回 [digested, end) 计入摘要，调用方保证这段已经写完
+     */
+    synchronized void catchUp(FileChannel channel, long end) throws IOException {
+        if (digested >= end) {
+            return;
+        }
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+        while (digested < end) {
+            readBuffer.clear().limit((int) Math.min(READ_BUFFER_SIZE, end - digested));
+            int n = channel.read(readBuffer, digested);
+            if (n < 0) {
+                throw new IntegrityException("文件比预期短: " + digested + " bytes");
+            }
+            readBuffer.flip();
+            update(digested, readBuffer);
+        }
+    }
+
+    /**
+     * 校验并返回结果
+     *
+     * @param expectedSize 期望大小 (Content-Length)，小于 0 表示不校验
+     * @param contentMd5   Content-MD5 响应头 (base64)，可为 null
+     * @param etag         ETag，形如 32 位十六进制时按 MD5 比对，不符只记日志 (ETag 的含义由服务器决定)
+     */
+    synchronized DownloadResult verify(long expectedSize, String contentMd5, String etag, ProgressCallback callback)
+        throws IntegrityException {
+        if (expectedSize >= 0 && digested != expectedSize) {
+            throw new IntegrityException("文件大小不符: 期望 " + expectedSize + " bytes, 实际 " + digested + " bytes");
+        }
+        HexFormat hex = HexFormat.of();
+        String sha256Hex = hex.formatHex(sha256.digest());
+        if (md5 == null) {
+            return new DownloadResult(digested, sha256Hex, null);
+        }
+        String md5Hex = hex.formatHex(md5.digest());
+
+        if (contentMd5 != null) {
+            String expected;
+            try {
+                expected = hex.formatHex(Base64.getDecoder().decode(contentMd5.trim()));
+            } catch (IllegalArgumentException e) {
+                expected = null;
+            }
+            if (expected != null && !expected.equals(md5Hex)) {
+                throw new IntegrityException("MD5 校验失败: Content-MD5 为 " + expected + ", 实际 " + md5Hex);
+            }
+        }
+        String etagMd5 = md5FromEtag(etag);
+        if (etagMd5 != null) {
+            if (etagMd5.equals(md5Hex)) {
+                callback.log("MD5 与 ETag 一致");
+            } else {
+                callback.log("注意: ETag 形似 MD5 但与内容不一致 (" + etagMd5 + " / " + md5Hex + ")");
+            }
+        }
+        return new DownloadResult(digested, sha256Hex, md5Hex);
+    }
+
+    /**
+     * 强 ETag 恰好是 32 位十六进制时，多半是内容的 MD5 (例如对象存储的单次上传)
+     */
+    private static String md5FromEtag(String etag) {
+        if (etag == null || etag.startsWith("W/")) {
+            return null;
+        }
+        String value = etag.trim();
+        if (value.length() == 34 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, 33);
+        }
+        if (value.length() != 32 || !value.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return null;
+        }
+        return value.toLowerCase();
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " 不可用", e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于 java.net.http.HttpClient 的异步传输引擎。优先使用 HTTP/2，同一主机的多个传输 (分段、HLS 分片)
+ * 复用少量连接；响应体由 {@link FileBodySubscriber} 直接写入 AsynchronousFileChannel，
+ * 传输过程中不占用线程，几百个并发传输也只需要很少的线程。
+ */
+class JdkTransferEngine implements TransferEngine {
+
+    /**
+     * HttpClient 回调和异步文件写都跑在虚拟线程上。两者默认都用缓存线程池，
+     * 并发传输多时会开出大量平台线程，而这些任务都很短。
+     */
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+
+    JdkTransferEngine() {
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(executor)
+                .build();
+    }
+
+    @Override
+    public RemoteFileInfo revalidate(String url, String etag, String lastModified) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody());
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        try {
+            HttpResponse<Void> response = client.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 304) {
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                return new RemoteFileInfo(-1, false, null, null, null);
+            }
+            return RemoteFileInfo.fromHeaders(name -> response.headers().firstValue(name).orElse(null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("探测被中断");
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> transfer(TransferRequest request, TransferListener listener) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl())).GET();
+        if (request.getRange() != null) {
+            builder.header("Range", request.getRange().toHeaderValue());
+        }
+        if (request.getIfRange() != null) {
+            // 文件在服务器端变化时，服务器会返回 200 和完整内容而不是 206
+            builder.header("If-Range", request.getIfRange());
+        }
+
+        HttpResponse.BodyHandler<Long> handler = info -> {
+            try {
+                httpVersion(info.version());
+                request.checkStatus(info.statusCode());
+                listener.onResponse(info.headers().firstValueAsLong("Content-Length").orElse(-1));
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(request.getOutputPath(),
+                        Set.of(StandardOpenOption.WRITE), executor);
+                return new FileBodySubscriber(channel, request.getStart(), request.getLimit(), listener);
+            } catch (IOException e) {
+                return new FailedBodySubscriber<>(e);
+            }
+        };
+        listener.onStart();
+        // thenApply 得到的 future 被 cancel 时不会传回上游，需要显式取消交换本身，HttpClient 才会中止连接
+        CompletableFuture<HttpResponse<Long>> exchange = client.sendAsync(builder.build(), handler);
+        CompletableFuture<Long> future = exchange.thenApply(HttpResponse::body);
+        future.whenComplete((end, error) -> {
+            if (future.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 按协议版本计数，看出实际有多少请求走了 HTTP/2
+     */
+    private static void httpVersion(HttpClient.Version version) {
+        DownloadMetrics.registry().counter("http.version." + version).increment();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> fetchBytes(URI uri) {
+        HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            httpVersion(response.version());
+            if (response.statusCode() / 100 != 2) {
+                throw new CompletionException(
+                        new HttpStatusException("请求 " + uri + " 失败，状态码: " + response.statusCode(),
+                                response.statusCode()));
+            }
+            return response.body();
+        });
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 把响应体按顺序写入异步文件通道：上一批数据写完才向上游要下一批，天然形成背压
+     */
+    static final class FileBodySubscriber implements HttpResponse.BodySubscriber<Long>,
+            CompletionHandler<Integer, Void> {
+
+        private final AsynchronousFileChannel channel;
+        private final long limit;
+        private final TransferListener listener;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        // 回调来自 HttpClient 和文件通道的虚拟线程。用 ReentrantLock 而不是 synchronized：
+        // 持有监视器时在 HttpClient 内部的锁上等待会钉住载体线程，载体线程少时整个客户端会卡死
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // 以下状态在持有 lock 时读写
+        private Flow.Subscription subscription;
+        private long position;
+        private List<ByteBuffer> pending;
+        private int pendingIndex;
+        private int pendingBytes;
+        private boolean writing;
+        private boolean upstreamDone;
+        private DownloadEvents.DiskWrite writeEvent;
+        private long writeStartNanos;
+
+        FileBodySubscriber(AsynchronousFileChannel channel, long start, long limit, TransferListener listener) {
+            this.channel = channel;
+            this.position = start;
+            this.limit = limit;
+            this.listener = listener;
+            result.whenComplete((value, error) -> closeQuietly());
+        }
+
+        @Override
+        public CompletionStage<Long> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            lock.lock();
+            try {
+                this.subscription = subscription;
+                if (result.isDone()) {
+                    subscription.cancel();
+                    return;
+                }
+                subscription.request(1);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            lock.lock();
+            try {
+                if (result.isDone()) {
+                    return;
+                }
+                int bytes = 0;
+                for (ByteBuffer buffer : buffers) {
+                    bytes += buffer.remaining();
+                }
+                if (limit >= 0 && position + bytes > limit) {
+                    fail(new IOException("返回的数据超出预期长度"));
+                    return;
+                }
+                long dataPosition = position;
+                for (ByteBuffer buffer : buffers) {
+                    int start = buffer.position();
+                    listener.onData(dataPosition, buffer);
+                    buffer.position(start);
+                    dataPosition += buffer.remaining();
+                }
+                pending = buffers;
+                pendingIndex = 0;
+                pendingBytes = bytes;
+                writing = true;
+                writeEvent = new DownloadEvents.DiskWrite();
+                writeEvent.begin();
+                writeStartNanos = System.nanoTime();
+                writeNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            lock.lock();
+            try {
+                upstreamDone = true;
+                if (!writing) {
+                    result.complete(position);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 异步写完成回调
+         */
+        @Override
+        public void completed(Integer written, Void attachment) {
+            lock.lock();
+            try {
+                position += written;
+                writeNext();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            lock.lock();
+            try {
+                fail(exc);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void writeNext() {
+            if (result.isDone()) {
+                return;
+            }
+            while (pendingIndex < pending.size() && !pending.get(pendingIndex).hasRemaining()) {
+                pendingIndex++;
+            }
+            if (pendingIndex < pending.size()) {
+                channel.write(pending.get(pendingIndex), position, null, this);
+                return;
+            }
+            // 这一批全部写完
+            writing = false;
+            pending = null;
+            DownloadMetrics.diskWrite(writeEvent, writeStartNanos, position - pendingBytes, pendingBytes);
+            try {
+                listener.onWritten(position, pendingBytes);
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (upstreamDone) {
+                result.complete(position);
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            result.completeExceptionally(error);
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败不影响结果
+            }
+        }
+    }
+
+    /**
+     * 状态码不符或打不开文件时使用：立即取消订阅，不读响应体
+     */
+    static final class FailedBodySubscriber<T> implements HttpResponse.BodySubscriber<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        FailedBodySubscriber(Throwable error) {
+            result.completeExceptionally(error);
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.cancel();
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
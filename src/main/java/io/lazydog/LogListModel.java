@@ -0,0 +1,79 @@
+package io.lazydog;
+
+import javax.swing.AbstractListModel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 有界的日志列表模型：环形缓冲区只保留最近 capacity 条，超出时丢弃最旧的。
+ * 任意线程都可以 append，消息先进入队列，再由一次 EDT 任务批量并入模型，
+ * 每批只触发一次删除和一次插入事件。配合 JList (固定行高) 使用，只绘制可见的行。
+ */
+final class LogListModel extends AbstractListModel<String> {
+
+    private final String[] ring;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final EdtBatcher batcher = new EdtBatcher(this::flush);
+    private final Runnable afterFlush;
+    // 以下字段只在 EDT 上访问
+    private int head;
+    private int size;
+
+    /**
+     * @param afterFlush 每批消息并入后在 EDT 上调用，例如滚动到底部；可为 null
+     */
+    LogListModel(int capacity, Runnable afterFlush) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.ring = new String[capacity];
+        this.afterFlush = afterFlush;
+    }
+
+    /**
+     * 线程安全，不阻塞调用方
+     */
+    void append(String message) {
+        pending.add(message);
+        batcher.request();
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    private void flush() {
+        int oldSize = size;
+        int added = 0;
+        int evicted = 0;
+        String message;
+        while ((message = pending.poll()) != null) {
+            if (size == ring.length) {
+                ring[head] = message;
+                head = (head + 1) % ring.length;
+                evicted++;
+            } else {
+                ring[(head + size) % ring.length] = message;
+                size++;
+            }
+            added++;
+        }
+        if (added == 0) {
+            return;
+        }
+        // 被挤掉的可能包括本批前面的消息，只按最终结果通知：删掉旧的前 removed 条，末尾新增其余
+        int removed = Math.min(evicted, oldSize);
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+        fireIntervalAdded(this, oldSize - removed, size - 1);
+        if (afterFlush != null) {
+            afterFlush.run();
+        }
+    }
+}
@@ -0,0 +1,410 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 按字段全局排序的跨平台分页 (例如所有平台的数据按时间倒序)：各平台按同一顺序返回数据，
+ * 用堆做 k 路归并，全局第 n 页就是归并结果的第 (n - 1) * pageSize 条开始的 pageSize 条。
+ * <p>
+ * 每个平台按需分批读取：一批最多 readAhead 条，而且不超过到这一页结束还需要的条数，
+ * 任何平台都不会多取这一页用不到的数据。排序字段相同时按平台顺序排列，结果是确定的。
+ * <p>
+ * 每页结束时记下归并状态：每个平台已经归并了多少条 (水位)，以及各平台已经取到还没用完的数据。
+ * 下一页 (或更后面的页) 从这里继续，不用从头归并。
+ * <p>
+ * 归并经过的位置每隔 checkpointInterval 条记一个检查点 (这个位置上各平台的水位)，
+ * 请求很深的页或翻回前面的页时，从不超过起始位置的最近一个检查点或保存的状态继续，
+ * 不必重新读取前面的所有数据。检查点数量有上限，满了就隔一个删一个、间隔加倍，始终均匀覆盖已经到过的深度。
+ * 数据版本 (例如 {@link PlatformCountProvider#getVersion()}) 变化时，检查点和保存的状态全部作废；
+ * 也可以调用 {@link #reset()} 手动作废。
+ */
+public final class MergedPageAggregator<T> {
+
+    /**
+     * 按排序顺序分页读取单个平台的数据
+     */
+    @FunctionalInterface
+    public interface SortedSource<T> {
+        /**
+         * @return 排序后从 offset 开始的至多 limit 条；少于 limit 条表示平台的数据已经取完
+         */
+        List<T> fetch(String platform, long offset, int limit) throws IOException;
+    }
+
+    private final String[] platforms;
+    private final SortedSource<T> source;
+    private final Comparator<? super T> order;
+    private final int readAhead;
+    // 构造时指定的检查点间隔，作废检查点时恢复到这个值
+    private final long initialCheckpointInterval;
+    private final int maxCheckpoints;
+    private final LongSupplier dataVersion;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 以下字段在持有 lock 时读写
+    // 上一页结束时的归并状态，正在被某一页使用时为 null
+    private Merge idle;
+    // 全局位置 -> 该位置上各平台的水位
+    private final TreeMap<Long, long[]> checkpoints = new TreeMap<>();
+    // 当前检查点的间隔，检查点太多时加倍，0 表示不记录
+    private long checkpointInterval;
+    // 检查点和 idle 对应的数据版本
+    private long version;
+
+    /**
+     * 不记录检查点，数据变化后需要调用 {@link #reset()}
+     *
+     * @param platforms 平台名，排序字段相同时按这个顺序
+     * @param source    各平台的数据源
+     * @param order     排序顺序，各平台返回的数据必须已按此排序
+     * @param readAhead 每个平台一次最多读取的条数
+     */
+    public MergedPageAggregator(String[] platforms, SortedSource<T> source, Comparator<? super T> order,
+                                int readAhead) {
+        this(platforms, source, order, readAhead, 0, 0, () -> 0);
+    }
+
+    /**
+     * @param checkpointInterval 每隔多少条记一个检查点，0 表示不记录
+     * @param maxCheckpoints     最多保存的检查点数
+     * @param dataVersion        数据的版本，变化时检查点作废
+     */
+    public MergedPageAggregator(String[] platforms, SortedSource<T> source, Comparator<? super T> order,
+                                int readAhead, long checkpointInterval, int maxCheckpoints, LongSupplier dataVersion) {
+        if (readAhead <= 0) {
+            throw new IllegalArgumentException("Invalid readAhead: " + readAhead);
+        }
+        if (checkpointInterval < 0 || (checkpointInterval > 0 && maxCheckpoints < 1)) {
+            throw new IllegalArgumentException("Invalid checkpointInterval or maxCheckpoints");
+        }
+        this.platforms = platforms.clone();
+        this.source = source;
+        this.order = order;
+        this.readAhead = readAhead;
+        this.initialCheckpointInterval = checkpointInterval;
+        this.checkpointInterval = checkpointInterval;
+        this.maxCheckpoints = maxCheckpoints;
+        this.dataVersion = dataVersion;
+        this.version = dataVersion.getAsLong();
+    }
+
+    /**
+     * 全局排序后的第 pageNum 页
+     *
+     * @param pageNum  页码，从 1 开始
+     * @param pageSize 每页条数
+     * @return 这一页的数据；最后一页可能不足 pageSize，超出总数时为空
+     */
+    public List<T> page(long pageNum, int pageSize) throws IOException {
+        if (pageNum <= 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+        }
+        long start = Math.multiplyExact(pageNum - 1, (long) pageSize);
+        long end = Math.addExact(start, pageSize);
+        Merge merge = acquire(start);
+        // 出错时归并状态可能不完整，丢弃不再放回
+        while (merge.position < start) {
+            if (merge.poll(end) == null) {
+                release(merge);
+                return new ArrayList<>();
+            }
+            checkpoint(merge);
+        }
+        List<T> rows = new ArrayList<>(pageSize);
+        while (merge.position < end) {
+            T row = merge.poll(end);
+            if (row == null) {
+                break;
+            }
+            rows.add(row);
+            checkpoint(merge);
+        }
+        release(merge);
+        return rows;
+    }
+
+    /**
+     * 取出可以从 start 继续的归并状态：保存的状态和最近的检查点中位置靠后的那个，都没有就从头开始
+     */
+    private Merge acquire(long start) {
+        long current = dataVersion.getAsLong();
+        lock.lock();
+        try {
+            if (current != version) {
+                clearLocked();
+                version = current;
+            }
+            Merge merge = idle;
+            Map.Entry<Long, long[]> checkpoint = checkpoints.floorEntry(start);
+            if (merge != null && merge.position <= start
+                    && (checkpoint == null || checkpoint.getKey() <= merge.position)) {
+                idle = null;
+                return merge;
+            }
+            if (checkpoint != null) {
+                return new Merge(checkpoint.getKey(), checkpoint.getValue(), version);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Merge(0, new long[platforms.length], current);
+    }
+
+    /**
+     * 放回归并状态；并发翻页时保留位置更靠后的那个，数据版本已经变了就丢弃
+     */
+    private void release(Merge merge) {
+        lock.lock();
+        try {
+            if (merge.version == version && (idle == null || idle.position < merge.position)) {
+                idle = merge;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归并走到检查点的位置时记下各平台的水位
+     */
+    private void checkpoint(Merge merge) {
+        long position = merge.position;
+        lock.lock();
+        try {
+            if (checkpointInterval == 0 || position % checkpointInterval != 0 || merge.version != version
+                    || checkpoints.containsKey(position)) {
+                return;
+            }
+            checkpoints.put(position, merge.watermarks());
+            if (checkpoints.size() > maxCheckpoints) {
+                // 间隔加倍，只保留新间隔的整数倍位置上的检查点
+                checkpointInterval *= 2;
+                checkpoints.keySet().removeIf(key -> key % checkpointInterval != 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃保存的归并状态和检查点，数据变化后调用
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            clearLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void clearLocked() {
+        idle = null;
+        checkpoints.clear();
+        checkpointInterval = initialCheckpointInterval;
+    }
+
+    /**
+     * @return 目前保存的检查点数
+     */
+    public int getCheckpointCount() {
+        lock.lock();
+        try {
+            return checkpoints.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 保存的归并状态中每个平台已经归并的条数；没有保存的状态时全为 0
+     */
+    public long[] getWatermarks() {
+        lock.lock();
+        try {
+            return idle == null ? new long[platforms.length] : idle.watermarks();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 保存的归并状态所在的全局位置，即各平台水位之和
+     */
+    public long getWatermarkPosition() {
+        lock.lock();
+        try {
+            return idle == null ? 0 : idle.position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 单个平台的读取位置和已经取到的数据
+     */
+    private final class PlatformStream {
+        final int index;
+        // 下一次向上游读取的位置
+        long offset;
+        List<T> buffer = Collections.emptyList();
+        int next;
+        boolean exhausted;
+
+        PlatformStream(int index, long offset) {
+            this.index = index;
+            this.offset = offset;
+        }
+
+        boolean hasHead() {
+            return next < buffer.size();
+        }
+
+        T head() {
+            return buffer.get(next);
+        }
+
+        /**
+         * @param limit 这一批最多读取的条数
+         */
+        void fill(int limit) throws IOException {
+            List<T> rows = source.fetch(platforms[index], offset, limit);
+            if (rows.size() > limit) {
+                throw new IOException("平台 " + platforms[index] + " 返回 " + rows.size() + " 条，超出请求的 " + limit + " 条");
+            }
+            offset += rows.size();
+            exhausted = rows.size() < limit;
+            buffer = rows;
+            next = 0;
+        }
+
+        long watermark() {
+            return offset - (buffer.size() - next);
+        }
+    }
+
+    /**
+     * 一次归并的状态。position 是下一条的全局位置，等于各平台水位之和
+     */
+    private final class Merge {
+        final long version;
+        long position;
+        final List<PlatformStream> streams;
+        // 有数据可比较的平台，按当前第一条排序
+        final PriorityQueue<PlatformStream> heap;
+        // 数据用完但还没取完、需要再读一批的平台
+        final ArrayDeque<PlatformStream> starving = new ArrayDeque<>();
+
+        Merge(long position, long[] watermarks, long version) {
+            this.version = version;
+            this.position = position;
+            this.streams = new ArrayList<>(platforms.length);
+            Comparator<PlatformStream> byHead = (a, b) -> order.compare(a.head(), b.head());
+            this.heap = new PriorityQueue<>(Math.max(1, platforms.length),
+                    byHead.thenComparingInt(stream -> stream.index));
+            for (int i = 0; i < platforms.length; i++) {
+                PlatformStream stream = new PlatformStream(i, watermarks[i]);
+                streams.add(stream);
+                starving.add(stream);
+            }
+        }
+
+        /**
+         * 取出归并顺序的下一条
+         *
+         * @param end 这一页结束的全局位置，决定这次最多读取多少条
+         * @return 下一条；所有平台都取完时返回 null
+         */
+        T poll(long end) throws IOException {
+            // 每个平台至多贡献到 end 为止剩下的条数
+            int limit = (int) Math.min(readAhead, Math.max(1, end - position));
+            while (!starving.isEmpty()) {
+                PlatformStream stream = starving.poll();
+                stream.fill(limit);
+                if (stream.hasHead()) {
+                    heap.add(stream);
+                }
+            }
+            PlatformStream stream = heap.poll();
+            if (stream == null) {
+                return null;
+            }
+            T row = stream.buffer.get(stream.next++);
+            position++;
+            if (stream.hasHead()) {
+                heap.add(stream);
+            } else if (!stream.exhausted) {
+                starving.add(stream);
+            }
+            return row;
+        }
+
+        long[] watermarks() {
+            long[] watermarks = new long[streams.size()];
+            for (int i = 0; i < watermarks.length; i++) {
+                watermarks[i] = streams.get(i).watermark();
+            }
+            return watermarks;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // 模拟四个平台的数据，每条是一个时间戳，各平台按时间倒序返回
+        String[] platforms = {"A", "B", "C", "D"};
+        Random random = new Random(1);
+        List<List<Long>> data = new ArrayList<>();
+        for (int count : new int[]{20, 80, 150, 200}) {
+            List<Long> rows = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                rows.add(1_700_000_000L + random.nextInt(1_000_000));
+            }
+            rows.sort(Comparator.reverseOrder());
+            data.add(rows);
+        }
+        AtomicLong fetched = new AtomicLong();
+        SortedSource<Long> source = (platform, offset, limit) -> {
+            List<Long> rows = data.get(Arrays.asList(platforms).indexOf(platform));
+            int from = (int) Math.min(offset, rows.size());
+            int to = (int) Math.min(offset + limit, rows.size());
+            fetched.addAndGet(to - from);
+            return new ArrayList<>(rows.subList(from, to));
+        };
+
+        MergedPageAggregator<Long> aggregator =
+                new MergedPageAggregator<>(platforms, source, Comparator.reverseOrder(), 20);
+        for (int page = 1; page <= 3; page++) {
+            List<Long> rows = aggregator.page(page, 10);
+            System.out.println("第 " + page + " 页: " + rows);
+            System.out.println("  水位 " + Arrays.toString(aggregator.getWatermarks()) + "，累计读取 " + fetched + " 条");
+        }
+        System.out.println("第 46 页: " + aggregator.page(46, 10) + "，累计读取 " + fetched + " 条");
+
+        // 每 50 条记一个检查点：第一次读到第 40 页要归并前面所有数据，之后翻回第 30 页从检查点继续
+        AtomicLong dataVersion = new AtomicLong();
+        MergedPageAggregator<Long> indexed = new MergedPageAggregator<>(platforms, source,
+                Comparator.reverseOrder(), 20, 50, 16, dataVersion::get);
+        fetched.set(0);
+        indexed.page(40, 10);
+        System.out.println("第 40 页读取 " + fetched + " 条，检查点 " + indexed.getCheckpointCount() + " 个");
+        fetched.set(0);
+        indexed.page(30, 10);
+        System.out.println("第 30 页读取 " + fetched + " 条");
+        dataVersion.incrementAndGet();
+        fetched.set(0);
+        indexed.page(30, 10);
+        System.out.println("数据变化后第 30 页读取 " + fetched + " 条，检查点 " + indexed.getCheckpointCount() + " 个");
+    }
+}
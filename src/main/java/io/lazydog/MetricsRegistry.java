@@ -0,0 +1,178 @@
+package io.lazydog;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 进程内的指标注册表：计数器、直方图和按需计算的瞬时值，记录路径上只有无锁的原子操作。
+ * 热路径上的代码应在初始化时取出计数器/直方图的引用并保存，不要每次按名字查找。
+ */
+public final class MetricsRegistry {
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long delta) {
+            value.add(delta);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * 对数分桶直方图：每个 2 的幂区间再分 8 个子桶，分位数误差不超过 12.5%。
+     * 只记录非负整数，负数按 0 计。
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = (64 - 2) * SUB_BUCKETS;
+
+        private final String unit;
+        private final double scale;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram(String unit, double scale) {
+            this.unit = unit;
+            this.scale = scale;
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(indexOf(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * @param quantile 0~1
+         * @return 分位数所在桶的上界 (不超过最大值)
+         */
+        public long getPercentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(lowerBound(i + 1) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int indexOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int mantissa = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return (exponent - 2) * SUB_BUCKETS + mantissa;
+        }
+
+        private static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            if (index >= BUCKETS) {
+                return Long.MAX_VALUE;
+            }
+            int exponent = index / SUB_BUCKETS + 2;
+            return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - 3);
+        }
+
+        String format() {
+            return String.format("count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f %s",
+                    getCount(), getMean() * scale, getPercentile(0.5) * scale, getPercentile(0.9) * scale,
+                    getPercentile(0.99) * scale, getMax() * scale, unit);
+        }
+    }
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * @param unit  输出时显示的单位
+     * @param scale 输出时把记录的原始值乘以这个系数，例如纳秒按毫秒显示时为 1e-6
+     */
+    public Histogram histogram(String name, String unit, double scale) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(unit, scale));
+    }
+
+    /**
+     * 注册一个在输出时才计算的值，例如由两个计数器算出的比例
+     */
+    public void gauge(String name, DoubleSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * @return 所有指标的文本快照，每行一个，按名字排序
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        counters.forEach((name, counter) -> sb.append(name).append(' ').append(counter.get()).append('\n'));
+        gauges.forEach((name, gauge) ->
+                sb.append(name).append(' ').append(String.format("%.3f", gauge.getAsDouble())).append('\n'));
+        histograms.forEach((name, histogram) -> {
+            if (histogram.getCount() > 0) {
+                sb.append(name).append(' ').append(histogram.format()).append('\n');
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * 每隔 periodSeconds 秒把 {@link #dump()} 的结果交给 sink，关闭返回值即停止
+     */
+    public Closeable startPeriodicDump(long periodSeconds, Consumer<String> sink) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> sink.accept(dump()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return scheduler::shutdownNow;
+    }
+}
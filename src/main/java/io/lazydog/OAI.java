@@ -33,54 +33,20 @@ public class OAI {
      * @return 如果页码超出总数据数，则返回 null，否则返回 QueryRange 对象
      */
     public static QueryRange getQueryRange(int pageNumber, int pageSize, LinkedHashMap<String, Integer> platformCounts) {
-        // 计算所有平台的总记录数
-        int total = 0;
-        for (Integer count : platformCounts.values()) {
-            total += count;
-        }
-        
-        // 计算全局起始和结束下标（下标从0开始）
-        int startIndex = (pageNumber - 1) * pageSize;
-        int endIndex = startIndex + pageSize - 1;
-        
-        // 如果起始下标超过总记录数，则说明该页没有数据
-        if (startIndex >= total) {
+        // 平台接口的分页大小与这里无关，只用到起止位置
+        PaginationPlanner.PagePlan plan = PaginationPlanner.of(platformCounts, PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE)
+                .plan(pageNumber, pageSize);
+        // 起始下标超过总记录数，说明该页没有数据
+        if (plan == null) {
             return null;
         }
-        
-        // 如果结束下标超过总数，则调整为最后一条记录的下标
-        if (endIndex >= total) {
-            endIndex = total - 1;
-        }
-        
+
+        // 结束下标超过总数时已截到最后一条记录
         QueryRange qr = new QueryRange();
-        
-        // 计算开始平台及在该平台中的偏移
-        int cumCount = 0; // 累计记录数
-        for (Map.Entry<String, Integer> entry : platformCounts.entrySet()) {
-            String platform = entry.getKey();
-            int count = entry.getValue();
-            if (startIndex < cumCount + count) {
-                qr.startPlatform = platform;
-                qr.startOffset = startIndex - cumCount;
-                break;
-            }
-            cumCount += count;
-        }
-        
-        // 计算结束平台及在该平台中的偏移
-        cumCount = 0;
-        for (Map.Entry<String, Integer> entry : platformCounts.entrySet()) {
-            String platform = entry.getKey();
-            int count = entry.getValue();
-            if (endIndex < cumCount + count) {
-                qr.endPlatform = platform;
-                qr.endOffset = endIndex - cumCount;
-                break;
-            }
-            cumCount += count;
-        }
-        
+        qr.startPlatform = plan.getStartPlatform();
+        qr.startOffset = (int) plan.getStartOffset();
+        qr.endPlatform = plan.getEndPlatform();
+        qr.endOffset = (int) plan.getEndOffset();
         return qr;
     }
 
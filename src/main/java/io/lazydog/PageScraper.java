@@ -0,0 +1,215 @@
+package io.lazydog;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 从网页中提取视频地址：&lt;video&gt; 和其中的 &lt;source&gt;、og:video 元数据、页面里出现的 m3u8 链接。
+ * <p>
+ * 网页通过传输引擎获取 (复用连接池和指标)，用 jsoup 解析。批量提取时每个页面一个虚拟线程，
+ * 同时获取和解析的页面数由信号量限制；同一页面的并发请求合并成一次，
+ * 解析结果按页面 URL 放入有界的 LRU 缓存，重复出现的页面不再获取。
+ */
+final class PageScraper implements Closeable {
+
+    /**
+     * 脚本里的 m3u8 地址，JSON 中转义过的 "\/" 先还原再匹配
+     */
+    private static final Pattern M3U8_PATTERN =
+            Pattern.compile("https?://[^\\s\"'<>\\\\]+?\\.m3u8(?:\\?[^\\s\"'<>\\\\]*)?");
+
+    private static final String M3U8_ATTRIBUTES = "[src*=.m3u8], [href*=.m3u8], [data-src*=.m3u8], [content*=.m3u8]";
+
+    private static final String OG_VIDEO = "meta[property=og:video], meta[property=og:video:url], "
+            + "meta[property=og:video:secure_url], meta[name=twitter:player:stream]";
+
+    private final TransferEngine engine;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final SingleFlight<String, List<String>> singleFlight = new SingleFlight<>();
+    private final Map<String, List<String>> cache;
+
+    /**
+     * @param engine      获取网页用的引擎，由调用方负责关闭
+     * @param parallelism 同时获取和解析的页面数
+     * @param cacheSize   缓存的页面数，0 表示不缓存
+     */
+    PageScraper(TransferEngine engine, int parallelism, int cacheSize) {
+        if (parallelism < 1 || cacheSize < 0) {
+            throw new IllegalArgumentException("Invalid scraper limits");
+        }
+        this.engine = engine;
+        this.permits = new Semaphore(parallelism);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * 单个页面的提取结果
+     */
+    static final class PageResult {
+        private final String pageUrl;
+        private final List<String> videoUrls;
+        private final IOException error;
+
+        PageResult(String pageUrl, List<String> videoUrls, IOException error) {
+            this.pageUrl = pageUrl;
+            this.videoUrls = videoUrls;
+            this.error = error;
+        }
+
+        public String getPageUrl() {
+            return pageUrl;
+        }
+
+        /**
+         * @return 按在页面中出现的顺序去重后的地址，失败时为空
+         */
+        public List<String> getVideoUrls() {
+            return videoUrls;
+        }
+
+        /**
+         * @return 获取或解析失败的原因，成功时为 null
+         */
+        public IOException getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 提取一个页面，异步执行；失败不会以异常结束，而是体现在结果的 error 中
+     */
+    CompletableFuture<PageResult> scrape(String pageUrl) {
+        List<String> cached = cached(pageUrl);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(new PageResult(pageUrl, cached, null));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new PageResult(pageUrl, singleFlight.execute(pageUrl, () -> load(pageUrl)), null);
+            } catch (IOException e) {
+                return new PageResult(pageUrl, List.of(), e);
+            }
+        }, executor);
+    }
+
+    /**
+     * 并发提取一批页面，全部结束后按输入顺序返回
+     */
+    List<PageResult> scrapeAll(List<String> pageUrls) {
+        List<CompletableFuture<PageResult>> futures = new ArrayList<>(pageUrls.size());
+        for (String pageUrl : pageUrls) {
+            futures.add(scrape(pageUrl));
+        }
+        List<PageResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<PageResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    private List<String> cached(String pageUrl) {
+        synchronized (cache) {
+            return cache.get(pageUrl);
+        }
+    }
+
+    private List<String> load(String pageUrl) throws IOException {
+        // 排队等名额期间可能已经有别的调用方把结果放进缓存
+        List<String> cached = cached(pageUrl);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("提取被中断");
+        }
+        List<String> videoUrls;
+        try {
+            byte[] html = VideoDownloader.await(engine.fetchBytes(URI.create(pageUrl)));
+            // 不指定字符集时 jsoup 按 BOM 和 <meta charset> 识别，默认 UTF-8
+            Document document = Jsoup.parse(new ByteArrayInputStream(html), null, pageUrl);
+            videoUrls = extract(document);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("无效的页面地址: " + pageUrl, e);
+        } finally {
+            permits.release();
+        }
+        synchronized (cache) {
+            cache.put(pageUrl, videoUrls);
+        }
+        return videoUrls;
+    }
+
+    /**
+     * 从解析好的页面中找出视频地址，相对地址按页面地址 (或 &lt;base&gt;) 解析成绝对地址
+     */
+    static List<String> extract(Document document) {
+        Set<String> found = new LinkedHashSet<>();
+        for (Element element : document.select("video[src], video > source[src], video[data-src]")) {
+            add(found, element.hasAttr("src") ? element.absUrl("src") : element.absUrl("data-src"));
+        }
+        for (Element element : document.select(OG_VIDEO)) {
+            add(found, element.absUrl("content"));
+        }
+        for (Element element : document.select(M3U8_ATTRIBUTES)) {
+            for (String key : new String[]{"src", "href", "data-src", "content"}) {
+                if (element.attr(key).contains(".m3u8")) {
+                    add(found, element.absUrl(key));
+                }
+            }
+        }
+        for (Element script : document.select("script")) {
+            String data = script.data();
+            if (data.contains("m3u8")) {
+                Matcher matcher = M3U8_PATTERN.matcher(data.replace("\\/", "/"));
+                while (matcher.find()) {
+                    add(found, matcher.group());
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(found));
+    }
+
+    private static void add(Set<String> found, String url) {
+        // absUrl 解析失败时返回空串；blob: 和 data: 地址无法下载
+        if (url.startsWith("http://") || url.startsWith("https://")) {
+            found.add(url);
+        }
+    }
+
+    /**
+     * 中断还在进行的提取，不关闭引擎
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -7,100 +7,56 @@ class PlatformQuery {
     private String platform;
     private int pageNum;
     private int pageSize;
+    private int startOffset;
 
     public PlatformQuery(String platform, int pageNum, int pageSize) {
+        this(platform, pageNum, pageSize, 0);
+    }
+
+    /**
+     * @param startOffset 需要的数据在平台这一页中的起始位置
+     */
+    public PlatformQuery(String platform, int pageNum, int pageSize, int startOffset) {
         this.platform = platform;
         this.pageNum = pageNum;
         this.pageSize = pageSize;
+        this.startOffset = startOffset;
     }
 
     @Override
     public String toString() {
-        return "Platform: " + platform + ", PageNum: " + pageNum + ", PageSize: " + pageSize;
+        return "Platform: " + platform + ", PageNum: " + pageNum + ", PageSize: " + pageSize
+                + ", StartOffset: " + startOffset;
     }
 
     // Getters
     public String getPlatform() { return platform; }
     public int getPageNum() { return pageNum; }
     public int getPageSize() { return pageSize; }
+    public int getStartOffset() { return startOffset; }
 }
 
 public class PaginationCalculator {
 
+    private static final String[] PLATFORM_NAMES = {"A", "B", "C", "D"};
+
+    /**
+     * 第 N 页 (每页 50 条) 需要对各平台发出的分页查询；最后一页不足 50 条时只查到最后一条，超出总数时返回空列表
+     */
     public static List<PlatformQuery> calculateQueries(int countA, int countB, int countC, int countD, int N) {
+        PaginationPlanner planner = new PaginationPlanner(PLATFORM_NAMES,
+                new long[]{countA, countB, countC, countD}, PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE);
         List<PlatformQuery> queries = new ArrayList<>();
-        int start = (N - 1) * 50 + 1;
-        int end = N * 50;
-
-        int[] counts = {countA, countB, countC, countD};
-        String[] platformNames = {"A", "B", "C", "D"};
-        List<Integer> prefixSums = new ArrayList<>();
-        int currentSum = 0;
-        for (int count : counts) {
-            currentSum += count;
-            prefixSums.add(currentSum);
-        }
-
-        int totalData = prefixSums.get(prefixSums.size() - 1);
-        if (start > totalData) {
+        PaginationPlanner.PagePlan plan = planner.plan(N, PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE);
+        if (plan == null) {
             return queries; // 超出数据范围，返回空列表
         }
-
-        // 确定起始和结束平台
-        int startPlatform = findPlatform(start, prefixSums);
-        int endPlatform = findPlatform(end, prefixSums);
-
-        if (startPlatform == -1 || endPlatform == -1) {
-            return queries;
-        }
-
-        int currentPosition = start;
-        for (int platformIdx = startPlatform; platformIdx <= endPlatform; platformIdx++) {
-            int platformStart = (platformIdx == 0) ? 1 : (prefixSums.get(platformIdx - 1) + 1);
-            int platformEnd = prefixSums.get(platformIdx);
-            if (currentPosition > platformEnd) {
-                continue;
-            }
-
-            int overlapStart = Math.max(currentPosition, platformStart);
-            int overlapEnd = Math.min(end, platformEnd);
-            int localStart = overlapStart - platformStart + 1;
-            int localLength = overlapEnd - overlapStart + 1;
-
-            // 计算分页参数
-            int remaining = localLength;
-            int currentLocal = localStart;
-            while (remaining > 0) {
-                int page = (currentLocal - 1) / 50;
-                int pageStart = page * 50 + 1;
-                int availableInPage = 50 - (currentLocal - pageStart);
-                int chunk = Math.min(availableInPage, remaining);
-
-                queries.add(new PlatformQuery(
-                    platformNames[platformIdx],
-                    page + 1,
-                    chunk
-                ));
-
-                currentLocal += chunk;
-                remaining -= chunk;
-            }
-
-            currentPosition = overlapEnd + 1;
-        }
-
+        // 各平台数据量都在 int 范围内，平台内的页码也一定在 int 范围内
+        plan.forEachTask((platformIdx, page, startOffset, count, targetOffset) ->
+                queries.add(new PlatformQuery(PLATFORM_NAMES[platformIdx], (int) page, count, startOffset)));
         return queries;
     }
 
-    private static int findPlatform(int position, List<Integer> prefixSums) {
-        for (int i = 0; i < prefixSums.size(); i++) {
-            if (position <= prefixSums.get(i)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
     public static void main(String[] args) {
         // 示例：平台A有100条，B有80条，C有120条，D有60条，查询第5页
         List<PlatformQuery> queries = calculateQueries(100, 80, 120, 60, 5);
@@ -108,4 +64,4 @@ public class PaginationCalculator {
             System.out.println(query);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,412 @@
+package io.lazydog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 跨平台分页：各平台的数据按固定顺序首尾相接，看成一个全局列表，全局第 n 页落在哪些平台的哪些位置，
+ * 再按平台接口的分页大小拆成对各平台的分页查询。
+ * <p>
+ * 耗时 O(log P + 涉及的平台数)，只分配一个 {@link PagePlan} 和其中涉及平台的起始位置；任务用 {@link PagePlan#forEachTask} 逐个回调，
+ * 不需要中间集合。数据量和全局下标都用 long，单个平台或合计超过 int 范围都没有问题。
+ * <p>
+ * 统一的边界语义：结束位置超出总数时截到最后一条；起始位置超出总数时该页没有数据，返回 null。
+ * 数据量为 0 的平台不会出现在结果里。实例不可变，可以在多个线程间共享。
+ */
+public final class PaginationPlanner {
+
+    /**
+     * 各平台接口默认的分页大小
+     */
+    public static final int DEFAULT_PLATFORM_PAGE_SIZE = 50;
+
+    private final String[] platforms;
+    // prefix[i] 是前 i 个平台的数据量之和，长度为平台数 + 1
+    private final long[] prefix;
+    private final int platformPageSize;
+
+    /**
+     * @param platforms        平台名，按查询顺序
+     * @param counts           各平台的数据量，与 platforms 一一对应
+     * @param platformPageSize 平台接口的分页大小
+     */
+    public PaginationPlanner(String[] platforms, long[] counts, int platformPageSize) {
+        if (platforms.length != counts.length) {
+            throw new IllegalArgumentException("platforms and counts differ in length");
+        }
+        if (platformPageSize <= 0) {
+            throw new IllegalArgumentException("Invalid platformPageSize: " + platformPageSize);
+        }
+        this.platforms = platforms.clone();
+        this.prefix = new long[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException("Negative count for platform " + platforms[i]);
+            }
+            prefix[i + 1] = Math.addExact(prefix[i], counts[i]);
+        }
+        this.platformPageSize = platformPageSize;
+    }
+
+    /**
+     * @param platformCounts 各平台的数据量，按迭代顺序 (例如 LinkedHashMap 的插入顺序) 排列
+     */
+    public static PaginationPlanner of(Map<String, ? extends Number> platformCounts, int platformPageSize) {
+        String[] platforms = new String[platformCounts.size()];
+        long[] counts = new long[platforms.length];
+        int i = 0;
+        for (Map.Entry<String, ? extends Number> entry : platformCounts.entrySet()) {
+            platforms[i] = entry.getKey();
+            counts[i] = entry.getValue().longValue();
+            i++;
+        }
+        return new PaginationPlanner(platforms, counts, platformPageSize);
+    }
+
+    public long getTotal() {
+        return prefix[prefix.length - 1];
+    }
+
+    public int getPlatformCount() {
+        return platforms.length;
+    }
+
+    public int getPlatformPageSize() {
+        return platformPageSize;
+    }
+
+    public String getPlatform(int index) {
+        return platforms[index];
+    }
+
+    public long getCount(int index) {
+        return prefix[index + 1] - prefix[index];
+    }
+
+    /**
+     * @return 第 index 个平台的第一条数据在全局列表中的下标
+     */
+    public long getStart(int index) {
+        return prefix[index];
+    }
+
+    /**
+     * @param globalIndex 全局下标，从 0 开始，必须小于 {@link #getTotal()}
+     * @return 包含这条数据的平台序号 (跳过数据量为 0 的平台)
+     */
+    public int platformOf(long globalIndex) {
+        if (globalIndex < 0 || globalIndex >= getTotal()) {
+            throw new IndexOutOfBoundsException("Global index out of range: " + globalIndex);
+        }
+        // 找第一个 prefix[i + 1] > globalIndex 的 i
+        int low = 0;
+        int high = platforms.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (prefix[mid + 1] > globalIndex) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 规划全局第 pageNum 页
+     *
+     * @param pageNum  全局页码，从 1 开始
+     * @param pageSize 全局每页条数
+     * @return 该页的范围；起始位置超出总数时返回 null
+     */
+    public PagePlan plan(long pageNum, int pageSize) {
+        if (pageNum <= 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+        }
+        long start;
+        try {
+            start = Math.multiplyExact(pageNum - 1, (long) pageSize);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        return range(start, pageSize);
+    }
+
+    /**
+     * 规划从全局下标 start 开始的 length 条
+     *
+     * @return 该范围；start 超出总数时返回 null
+     */
+    public PagePlan range(long start, int length) {
+        if (start < 0 || length <= 0) {
+            throw new IllegalArgumentException("Invalid range: start=" + start + ", length=" + length);
+        }
+        long total = getTotal();
+        if (start >= total) {
+            return null;
+        }
+        long end = Math.min(total - 1, start + length - 1);
+        int startPlatform = platformOf(start);
+        int endPlatform = platformOf(end);
+        long[] bounds = Arrays.copyOfRange(prefix, startPlatform, endPlatform + 2);
+        return new PagePlan(platforms, platformPageSize, 0, start, end, startPlatform, endPlatform, bounds);
+    }
+
+    /**
+     * 逐个接收分页任务的回调，参数都是基本类型，不分配对象
+     */
+    @FunctionalInterface
+    public interface TaskVisitor {
+        /**
+         * @param platformIndex 平台序号
+         * @param pageNum       平台接口的页码，从 1 开始，页大小为 {@link #getPlatformPageSize()}
+         * @param startOffset   需要的数据在这一页中的起始位置，前面的记录舍弃
+         * @param count         需要的条数
+         * @param targetOffset  这些数据在全局这一页里的起始位置，拼接结果时用
+         */
+        void visit(int platformIndex, long pageNum, int startOffset, int count, int targetOffset);
+    }
+
+    /**
+     * 对单个平台的一次分页查询
+     */
+    public static final class Task {
+        private final String platform;
+        private final int platformIndex;
+        private final long pageNum;
+        private final int startOffset;
+        private final int count;
+        private final int targetOffset;
+
+        Task(String platform, int platformIndex, long pageNum, int startOffset, int count, int targetOffset) {
+            this.platform = platform;
+            this.platformIndex = platformIndex;
+            this.pageNum = pageNum;
+            this.startOffset = startOffset;
+            this.count = count;
+            this.targetOffset = targetOffset;
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        public int getPlatformIndex() {
+            return platformIndex;
+        }
+
+        public long getPageNum() {
+            return pageNum;
+        }
+
+        public int getStartOffset() {
+            return startOffset;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getTargetOffset() {
+            return targetOffset;
+        }
+
+        @Override
+        public String toString() {
+            return "{platform=" + platform + ", pageNum=" + pageNum + ", startOffset=" + startOffset
+                    + ", count=" + count + "}";
+        }
+    }
+
+    /**
+     * 一页在各平台上的范围，下标都从 0 开始，结束位置包含在内。
+     * 只保存涉及的平台的起始位置，之后数据量变化不影响已经规划好的页
+     */
+    public static final class PagePlan {
+        private final String[] platforms;
+        private final int platformPageSize;
+        private final long version;
+        private final long globalStart;
+        private final long globalEnd;
+        private final int startPlatform;
+        private final int endPlatform;
+        // bounds[k] 是第 startPlatform + k 个平台的起始位置，长度为涉及的平台数 + 1
+        private final long[] bounds;
+
+        PagePlan(String[] platforms, int platformPageSize, long version, long globalStart, long globalEnd,
+                 int startPlatform, int endPlatform, long[] bounds) {
+            this.platforms = platforms;
+            this.platformPageSize = platformPageSize;
+            this.version = version;
+            this.globalStart = globalStart;
+            this.globalEnd = globalEnd;
+            this.startPlatform = startPlatform;
+            this.endPlatform = endPlatform;
+            this.bounds = bounds;
+        }
+
+        /**
+         * @return 规划时各平台数据量的版本，数据量不变的规划器恒为 0
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        private long startOf(int index) {
+            return bounds[index - startPlatform];
+        }
+
+        /**
+         * @param index 平台序号，在起止平台之间
+         */
+        public String getPlatform(int index) {
+            return platforms[index];
+        }
+
+        /**
+         * @param index 平台序号，在起止平台之间
+         * @return 该平台的第一条数据在全局列表中的下标
+         */
+        public long getStart(int index) {
+            if (index < startPlatform || index > endPlatform) {
+                throw new IndexOutOfBoundsException("Platform " + index + " is not in this page");
+            }
+            return startOf(index);
+        }
+
+        public long getGlobalStart() {
+            return globalStart;
+        }
+
+        public long getGlobalEnd() {
+            return globalEnd;
+        }
+
+        /**
+         * @return 实际条数，最后一页可能不足 pageSize
+         */
+        public int size() {
+            return (int) (globalEnd - globalStart + 1);
+        }
+
+        public int getStartPlatformIndex() {
+            return startPlatform;
+        }
+
+        public String getStartPlatform() {
+            return platforms[startPlatform];
+        }
+
+        /**
+         * @return 起始位置在起始平台内的偏移
+         */
+        public long getStartOffset() {
+            return globalStart - startOf(startPlatform);
+        }
+
+        public int getEndPlatformIndex() {
+            return endPlatform;
+        }
+
+        public String getEndPlatform() {
+            return platforms[endPlatform];
+        }
+
+        /**
+         * @return 结束位置在结束平台内的偏移
+         */
+        public long getEndOffset() {
+            return globalEnd - startOf(endPlatform);
+        }
+
+        /**
+         * @return 第 index 个平台在这一页中需要的第一条的平台内下标；与这一页没有交集时返回 -1
+         */
+        public long localStart(int index) {
+            if (index < startPlatform || index > endPlatform) {
+                return -1;
+            }
+            long from = Math.max(globalStart, startOf(index));
+            return from <= Math.min(globalEnd, startOf(index + 1) - 1) ? from - startOf(index) : -1;
+        }
+
+        /**
+         * @return 第 index 个平台在这一页中需要的最后一条的平台内下标；与这一页没有交集时返回 -1
+         */
+        public long localEnd(int index) {
+            if (index < startPlatform || index > endPlatform) {
+                return -1;
+            }
+            long to = Math.min(globalEnd, startOf(index + 1) - 1);
+            return Math.max(globalStart, startOf(index)) <= to ? to - startOf(index) : -1;
+        }
+
+        /**
+         * 按全局顺序回调这一页需要的每个平台分页查询
+         */
+        public void forEachTask(TaskVisitor visitor) {
+            for (int i = startPlatform; i <= endPlatform; i++) {
+                long localStart = localStart(i);
+                if (localStart < 0) {
+                    continue;
+                }
+                long targetOffset = startOf(i) + localStart - globalStart;
+                splitPages(i, localStart, localEnd(i), platformPageSize, (int) targetOffset, visitor);
+            }
+        }
+
+        /**
+         * @return 这一页需要的所有平台分页查询，按全局顺序
+         */
+        public List<Task> tasks() {
+            List<Task> tasks = new ArrayList<>();
+            forEachTask((index, pageNum, startOffset, count, targetOffset) ->
+                    tasks.add(new Task(platforms[index], index, pageNum, startOffset, count, targetOffset)));
+            return Collections.unmodifiableList(tasks);
+        }
+
+        /**
+         * @return 这一页涉及的平台名，按全局顺序
+         */
+        public List<String> platforms() {
+            List<String> names = new ArrayList<>();
+            for (int i = startPlatform; i <= endPlatform; i++) {
+                if (localStart(i) >= 0) {
+                    names.add(platforms[i]);
+                }
+            }
+            return names;
+        }
+
+        @Override
+        public String toString() {
+            return "PagePlan{" +
+                    "startPlatform='" + getStartPlatform() + '\'' +
+                    ", startOffset=" + getStartOffset() +
+                    ", endPlatform='" + getEndPlatform() + '\'' +
+                    ", endOffset=" + getEndOffset() +
+                    ", tasks=" + tasks() +
+                    '}';
+        }
+    }
+
+    /**
+     * 把平台内的下标区间 [localStart, localEnd] 按平台分页大小拆成若干次查询
+     *
+     * @param targetOffset 区间第一条在结果中的位置，之后每次查询依次累加
+     */
+    static void splitPages(int platformIndex, long localStart, long localEnd, int pageSize, int targetOffset,
+                           TaskVisitor visitor) {
+        long position = localStart;
+        while (position <= localEnd) {
+            int startOffset = (int) (position % pageSize);
+            int count = (int) Math.min(pageSize - startOffset, localEnd - position + 1);
+            visitor.visit(platformIndex, position / pageSize + 1, startOffset, count, targetOffset);
+            position += count;
+            targetOffset += count;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.lazydog;
+
+/**
+ * 平台查询接口支持的分页方式，决定一段数据最少要向上游请求几次。实例不可变
+ */
+public final class PlatformCapabilities {
+
+    public enum Mode {
+        /**
+         * 支持任意 offset/limit，limit 不超过上限
+         */
+        OFFSET,
+        /**
+         * 只能按页码查询，每页条数可以指定，不超过上限
+         */
+        PAGE,
+        /**
+         * 只能按页码查询，每页条数固定
+         */
+        FIXED_PAGE
+    }
+
+    private final Mode mode;
+    private final int maxLimit;
+
+    private PlatformCapabilities(Mode mode, int maxLimit) {
+        if (maxLimit <= 0) {
+            throw new IllegalArgumentException("Invalid maxLimit: " + maxLimit);
+        }
+        this.mode = mode;
+        this.maxLimit = maxLimit;
+    }
+
+    public static PlatformCapabilities offsetLimit(int maxLimit) {
+        return new PlatformCapabilities(Mode.OFFSET, maxLimit);
+    }
+
+    public static PlatformCapabilities pages(int maxPageSize) {
+        return new PlatformCapabilities(Mode.PAGE, maxPageSize);
+    }
+
+    public static PlatformCapabilities fixedPages(int pageSize) {
+        return new PlatformCapabilities(Mode.FIXED_PAGE, pageSize);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return 单次请求的条数上限；FIXED_PAGE 时就是每页条数
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public String toString() {
+        return mode + "(" + maxLimit + ")";
+    }
+}
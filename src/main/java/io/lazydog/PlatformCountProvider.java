@@ -0,0 +1,411 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 各平台数据量的缓存，供跨平台分页规划使用。数据量来自数据库或上游接口，获取代价高，不能每次翻页都取。
+ * <p>
+ * 数据量超过有效期 (TTL) 后，下一次规划照常使用旧值并在后台刷新 (stale-while-revalidate)，
+ * 翻页不会等待上游；同一时间最多一次后台刷新，刷新失败保留旧值，过一个有效期再试。
+ * 同步的 {@link #refresh()} 可能与后台刷新同时进行，先开始的加载后完成时不会覆盖后开始的结果。
+ * <p>
+ * 前缀和保存在树状数组 (Fenwick tree) 中，刷新或 {@link #updateCount} 只改变个别平台时，
+ * 每个平台 O(log P) 更新，不重建整个前缀和。写入持有 StampedLock 的写锁；
+ * 规划和各个查询方法用乐观读，不加锁，读完校验戳，期间有写入才退回读锁重做。每次数据量变化版本号加一，
+ * 规划结果带有规划时的版本，缓存可以据此判断是否过期。
+ */
+public final class PlatformCountProvider {
+
+    /**
+     * 按平台顺序加载所有平台的数据量
+     */
+    @FunctionalInterface
+    public interface CountLoader {
+        long[] load() throws IOException;
+    }
+
+    private final String[] platforms;
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final int platformPageSize;
+    private final CountLoader loader;
+    private final long ttlNanos;
+    private final StampedLock lock = new StampedLock();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    // 每次加载开始时加一，用于丢弃比已提交的加载开始得更早的结果
+    private final AtomicLong loadSequence = new AtomicLong();
+
+    // 以下字段在写锁内修改，乐观读时可能读到修改中途的值，校验戳后才使用
+    private final long[] counts;
+    // 树状数组，下标从 1 开始，tree[i] 是 (i - lowbit(i), i] 这些平台的数据量之和
+    private final long[] tree;
+    // 不大于平台数的最大 2 的幂，用于从高位开始的查找
+    private final int topBit;
+    private long total;
+    private long version;
+    // 已提交的加载的序号，在写锁内读写
+    private long committedLoad;
+
+    private volatile long loadedAt;
+    private volatile IOException lastRefreshError;
+
+    /**
+     * 立即加载一次数据量
+     *
+     * @param platforms        平台名，按查询顺序
+     * @param loader           数据量的来源，返回的数组与 platforms 一一对应
+     * @param ttlMillis        数据量的有效期
+     * @param platformPageSize 平台接口的分页大小
+     * @throws IOException 首次加载失败
+     */
+    public PlatformCountProvider(String[] platforms, CountLoader loader, long ttlMillis, int platformPageSize)
+            throws IOException {
+        if (ttlMillis <= 0 || platformPageSize <= 0) {
+            throw new IllegalArgumentException("Invalid ttlMillis or platformPageSize");
+        }
+        this.platforms = platforms.clone();
+        for (int i = 0; i < platforms.length; i++) {
+            indexes.put(platforms[i], i);
+        }
+        this.platformPageSize = platformPageSize;
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.counts = new long[platforms.length];
+        this.tree = new long[platforms.length + 1];
+        this.topBit = platforms.length == 0 ? 0 : Integer.highestOneBit(platforms.length);
+        refresh();
+    }
+
+    public int getPlatformCount() {
+        return platforms.length;
+    }
+
+    public String getPlatform(int index) {
+        return platforms[index];
+    }
+
+    public int getPlatformPageSize() {
+        return platformPageSize;
+    }
+
+    /**
+     * @return 平台的序号
+     * @throws IllegalArgumentException 没有这个平台
+     */
+    public int indexOf(String platform) {
+        Integer index = indexes.get(platform);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown platform: " + platform);
+        }
+        return index;
+    }
+
+    public long getCount(String platform) {
+        return getCount(indexOf(platform));
+    }
+
+    public long getCount(int index) {
+        long stamp = lock.tryOptimisticRead();
+        long count = counts[index];
+        if (lock.validate(stamp)) {
+            return count;
+        }
+        stamp = lock.readLock();
+        try {
+            return counts[index];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getTotal() {
+        long stamp = lock.tryOptimisticRead();
+        long currentTotal = total;
+        if (lock.validate(stamp)) {
+            return currentTotal;
+        }
+        stamp = lock.readLock();
+        try {
+            return total;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return 第 index 个平台的第一条数据在全局列表中的下标，O(log P)
+     */
+    public long getStart(int index) {
+        if (index < 0 || index >= platforms.length) {
+            throw new IndexOutOfBoundsException("Platform index out of range: " + index);
+        }
+        long stamp = lock.tryOptimisticRead();
+        long start = prefixSum(index);
+        if (lock.validate(stamp)) {
+            return start;
+        }
+        stamp = lock.readLock();
+        try {
+            return prefixSum(index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param globalIndex 全局下标，从 0 开始，必须小于 {@link #getTotal()}
+     * @return 包含这条数据的平台序号，O(log P)
+     */
+    public int platformOf(long globalIndex) {
+        long stamp = lock.tryOptimisticRead();
+        long currentTotal = total;
+        int platform = platformOfLocked(globalIndex);
+        if (lock.validate(stamp)) {
+            if (globalIndex < 0 || globalIndex >= currentTotal) {
+                throw new IndexOutOfBoundsException("Global index out of range: " + globalIndex);
+            }
+            return platform;
+        }
+        stamp = lock.readLock();
+        try {
+            if (globalIndex < 0 || globalIndex >= total) {
+                throw new IndexOutOfBoundsException("Global index out of range: " + globalIndex);
+            }
+            return platformOfLocked(globalIndex);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return 数据量的版本，每次有平台的数据量变化加一
+     */
+    public long getVersion() {
+        long stamp = lock.tryOptimisticRead();
+        long currentVersion = version;
+        if (lock.validate(stamp)) {
+            return currentVersion;
+        }
+        stamp = lock.readLock();
+        try {
+            return version;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return 最近一次后台刷新失败的原因，之后刷新成功时清空
+     */
+    public IOException getLastRefreshError() {
+        return lastRefreshError;
+    }
+
+    /**
+     * 规划全局第 pageNum 页，语义与 {@link PaginationPlanner#plan} 相同。
+     * 不等待刷新；数据量过期时触发一次后台刷新，本次仍按旧值规划
+     *
+     * @return 该页的范围；起始位置超出总数时返回 null
+     */
+    public PaginationPlanner.PagePlan plan(long pageNum, int pageSize) {
+        if (pageNum <= 0 || pageSize <= 0) {
+            throw new IllegalArgumentException("Invalid pageNum or pageSize");
+        }
+        if (System.nanoTime() - loadedAt > ttlNanos) {
+            refreshAsync();
+        }
+        long start;
+        try {
+            start = Math.multiplyExact(pageNum - 1, (long) pageSize);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                PaginationPlanner.PagePlan plan = planLocked(start, pageSize);
+                if (lock.validate(stamp)) {
+                    return plan;
+                }
+            } catch (RuntimeException e) {
+                // 读到了写入中途的值，算出的下标可能越界；校验失败就用读锁重做
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return planLocked(start, pageSize);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 调用方持有读锁，或者在乐观读中 (之后校验戳)
+     */
+    private PaginationPlanner.PagePlan planLocked(long start, int length) {
+        long currentTotal = total;
+        if (start >= currentTotal) {
+            return null;
+        }
+        long end = Math.min(currentTotal - 1, start + length - 1);
+        int startPlatform = platformOfLocked(start);
+        int endPlatform = platformOfLocked(end);
+        long[] bounds = new long[endPlatform - startPlatform + 2];
+        bounds[0] = prefixSum(startPlatform);
+        for (int i = startPlatform; i <= endPlatform; i++) {
+            bounds[i - startPlatform + 1] = bounds[i - startPlatform] + counts[i];
+        }
+        return new PaginationPlanner.PagePlan(platforms, platformPageSize, version, start, end,
+                startPlatform, endPlatform, bounds);
+    }
+
+    /**
+     * @return 前 count 个平台的数据量之和
+     */
+    private long prefixSum(int count) {
+        long sum = 0;
+        for (int i = count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 包含全局下标 globalIndex 的平台：从高位开始找前缀和不超过 globalIndex 的最长前缀，下一个平台即是
+     */
+    private int platformOfLocked(long globalIndex) {
+        int position = 0;
+        long remaining = globalIndex;
+        for (int bit = topBit; bit > 0; bit >>= 1) {
+            int next = position + bit;
+            if (next < tree.length && tree[next] <= remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * 直接修改某个平台的数据量，例如收到上游的变更通知时，O(log P)
+     */
+    public void updateCount(String platform, long count) {
+        updateCount(indexOf(platform), count);
+    }
+
+    public void updateCount(int index, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count for platform " + platforms[index]);
+        }
+        long stamp = lock.writeLock();
+        try {
+            long newTotal = Math.addExact(total - counts[index], count);
+            if (setCount(index, count)) {
+                total = newTotal;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 修改一个平台的数据量和树状数组，总数由调用方更新。调用方持有写锁
+     *
+     * @return 数据量是否有变化
+     */
+    private boolean setCount(int index, long count) {
+        long delta = count - counts[index];
+        if (delta == 0) {
+            return false;
+        }
+        counts[index] = count;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+        return true;
+    }
+
+    /**
+     * 同步刷新：加载所有平台的数据量，只更新有变化的平台
+     *
+     * @throws IOException 加载失败，保留原来的数据量
+     */
+    public void refresh() throws IOException {
+        long sequence = loadSequence.incrementAndGet();
+        long[] loaded = loader.load();
+        if (loaded.length != platforms.length) {
+            throw new IOException("加载的数据量个数 " + loaded.length + " 与平台数 " + platforms.length + " 不一致");
+        }
+        long newTotal = 0;
+        for (int i = 0; i < loaded.length; i++) {
+            if (loaded[i] < 0) {
+                throw new IOException("平台 " + platforms[i] + " 的数据量为负数: " + loaded[i]);
+            }
+            try {
+                newTotal = Math.addExact(newTotal, loaded[i]);
+            } catch (ArithmeticException e) {
+                throw new IOException("数据量合计超出 long 范围", e);
+            }
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (sequence < committedLoad) {
+                // 后开始的加载已经提交，这次读到的数据量更旧
+                return;
+            }
+            committedLoad = sequence;
+            // 逐个平台更新的中途树状数组的值可能溢出，全部更新完后与合计一致
+            boolean changed = false;
+            for (int i = 0; i < loaded.length; i++) {
+                changed |= setCount(i, loaded[i]);
+            }
+            if (changed) {
+                total = newTotal;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        loadedAt = System.nanoTime();
+        lastRefreshError = null;
+    }
+
+    private void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("count-refresh").start(() -> {
+            try {
+                refresh();
+            } catch (IOException e) {
+                lastRefreshError = e;
+                // 过一个有效期再试，期间继续使用旧值
+                loadedAt = System.nanoTime();
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * @return 当前数据量的不可变快照
+     */
+    public PaginationPlanner snapshot() {
+        long stamp = lock.readLock();
+        try {
+            return new PaginationPlanner(platforms, counts, platformPageSize);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 按全局顺序遍历所有平台首尾相接的数据。游标记住当前所在的平台和平台内的偏移，
+ * 每次向上游取一页 (按平台分页对齐)，不需要像逐页调用 aggregateData 那样每页重新定位。
+ * <p>
+ * 取数据在后台进行：消费方处理当前一页时，后面的 prefetch 页已经在取，
+ * 完整遍历的速度取决于上游而不是消费方和上游交替等待。用完必须 close，取消还没完成的预取。
+ * 游标不是线程安全的，只能由一个线程使用。
+ */
+public final class PlatformCursor implements Iterator<String>, AutoCloseable {
+
+    private final PlatformDataSource source;
+    private final PlatformCountProvider counts;
+    private final int pageSize;
+    private final int prefetch;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    // 已经发出、按顺序等待消费的页
+    private final ArrayDeque<Page> pending = new ArrayDeque<>();
+
+    // 下一次向上游请求的位置
+    private int fetchPlatform;
+    private long fetchOffset;
+
+    private List<String> current = Collections.emptyList();
+    private int currentIndex;
+    // 当前这一页所在的平台和平台内的起始偏移
+    private int currentPlatform = -1;
+    private long currentOffset;
+    private long position;
+    private boolean closed;
+
+    /**
+     * @param source    平台数据源
+     * @param counts    各平台的数据量，游标走到某个平台时读取它当时的数据量
+     * @param fromIndex 从全局第几条开始，从 0 开始
+     * @param prefetch  后台预取的页数，0 表示不预取
+     */
+    public PlatformCursor(PlatformDataSource source, PlatformCountProvider counts, long fromIndex, int prefetch) {
+        if (fromIndex < 0 || prefetch < 0) {
+            throw new IllegalArgumentException("Invalid fromIndex or prefetch");
+        }
+        this.source = source;
+        this.counts = counts;
+        this.pageSize = counts.getPlatformPageSize();
+        this.prefetch = prefetch;
+        this.position = fromIndex;
+        if (fromIndex < counts.getTotal()) {
+            fetchPlatform = counts.platformOf(fromIndex);
+            fetchOffset = fromIndex - counts.getStart(fetchPlatform);
+        } else {
+            fetchPlatform = counts.getPlatformCount();
+        }
+        fill(prefetch + 1);
+    }
+
+    /**
+     * 把已发出、还没消费的页补足到 target 个
+     */
+    private void fill(int target) {
+        while (pending.size() < target && !closed) {
+            while (fetchPlatform < counts.getPlatformCount() && fetchOffset >= counts.getCount(fetchPlatform)) {
+                fetchPlatform++;
+                fetchOffset = 0;
+            }
+            if (fetchPlatform >= counts.getPlatformCount()) {
+                return;
+            }
+            String platform = counts.getPlatform(fetchPlatform);
+            long offset = fetchOffset;
+            // 只取到平台这一页的末尾，之后的请求都和平台分页对齐
+            int limit = (int) Math.min(pageSize - offset % pageSize, counts.getCount(fetchPlatform) - offset);
+            pending.add(new Page(fetchPlatform, offset, executor.submit(() -> source.fetch(platform, offset, limit))));
+            fetchOffset += limit;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (currentIndex >= current.size()) {
+            if (pending.isEmpty()) {
+                fill(1);
+            }
+            Page next = pending.poll();
+            if (next == null) {
+                return false;
+            }
+            // 消费这一页的同时，后面 prefetch 页在后台取
+            fill(prefetch);
+            current = await(next.rows);
+            currentIndex = 0;
+            currentPlatform = next.platform;
+            currentOffset = next.offset;
+        }
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        position++;
+        return current.get(currentIndex++);
+    }
+
+    private List<String> await(Future<List<String>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("遍历被中断"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new UncheckedIOException(cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("平台数据查询失败", cause));
+        }
+    }
+
+    /**
+     * @return 下一条数据的全局下标
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return 下一条数据所在的平台；调用 {@link #hasNext()} 之后才有意义，还没有取到数据时为 null
+     */
+    public String getPlatform() {
+        return currentPlatform < 0 ? null : counts.getPlatform(currentPlatform);
+    }
+
+    /**
+     * @return 下一条数据在平台内的偏移；调用 {@link #hasNext()} 之后才有意义
+     */
+    public long getPlatformOffset() {
+        return currentOffset + currentIndex;
+    }
+
+    /**
+     * 一次向上游的请求
+     */
+    private static final class Page {
+        final int platform;
+        final long offset;
+        final Future<List<String>> rows;
+
+        Page(int platform, long offset, Future<List<String>> rows) {
+            this.platform = platform;
+            this.offset = offset;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * 以流的形式遍历，关闭流时关闭游标
+     */
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    /**
+     * 取消还没完成的预取
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pending.clear();
+        executor.shutdownNow();
+    }
+}
@@ -9,11 +9,20 @@ public class PlatformDataAggregator {
         private String platformId;
         private int pageNum;
         private int pageSize;
+        private int startOffset;
 
         public PlatformQueryInfo(String platformId, int pageNum, int pageSize) {
+            this(platformId, pageNum, pageSize, 0);
+        }
+
+        /**
+         * @param startOffset 需要的数据在平台这一页中的起始位置
+         */
+        public PlatformQueryInfo(String platformId, int pageNum, int pageSize, int startOffset) {
             this.platformId = platformId;
             this.pageNum = pageNum;
             this.pageSize = pageSize;
+            this.startOffset = startOffset;
         }
 
         public String getPlatformId() {
@@ -28,48 +37,35 @@ public class PlatformDataAggregator {
             return pageSize;
         }
 
+        public int getStartOffset() {
+            return startOffset;
+        }
+
         @Override
         public String toString() {
-            return "{PlatformId='" + platformId + "', PageNum=" + pageNum + ", PageSize=" + pageSize + "}";
+            return "{PlatformId='" + platformId + "', PageNum=" + pageNum + ", PageSize=" + pageSize
+                    + ", StartOffset=" + startOffset + "}";
         }
     }
 
-    public static List<PlatformQueryInfo> getPlatformsToQuery(int pageNum, int pageSize) {
-        int size_A = 60;
-        int size_B = 70;
-        int size_C = 80;
-        int size_D = 90;
-
-        int[] platformSizes = {size_A, size_B, size_C, size_D};
-        String[] platformIds = {"A", "B", "C", "D"};
-        int[] cumulativeSizes = new int[platformSizes.length];
-        cumulativeSizes[0] = platformSizes[0];
-        for (int i = 1; i < platformSizes.length; i++) {
-            cumulativeSizes[i] = cumulativeSizes[i - 1] + platformSizes[i];
-        }
-
-        int startIndex = (pageNum - 1) * pageSize;
-        int endIndex = startIndex + pageSize - 1;
+    /**
+     * 平台 A、B、C、D 的数据量分别为 60、70、80、90，平台接口每页 50 条
+     */
+    private static final PaginationPlanner PLANNER = new PaginationPlanner(new String[]{"A", "B", "C", "D"},
+            new long[]{60, 70, 80, 90}, PaginationPlanner.DEFAULT_PLATFORM_PAGE_SIZE);
 
+    /**
+     * 全局第 pageNum 页需要对各平台发出的分页查询；超出总数据量时返回空列表
+     */
+    public static List<PlatformQueryInfo> getPlatformsToQuery(int pageNum, int pageSize) {
         List<PlatformQueryInfo> platformsToQuery = new ArrayList<>();
-        int previousCumulativeSize = 0;
-
-        for (int i = 0; i < platformIds.length; i++) {
-            String platformId = platformIds[i];
-            int platformSize = platformSizes[i];
-            int cumulativeSize = cumulativeSizes[i];
-
-            int platformStartIndexRange = previousCumulativeSize;
-            int platformEndIndexRange = cumulativeSize - 1;
-
-            if (Math.max(startIndex, platformStartIndexRange) <= Math.min(endIndex, platformEndIndexRange)) {
-                int queryStartGlobalIndex = Math.max(startIndex, platformStartIndexRange);
-                int queryEndGlobalIndex = Math.min(endIndex, platformEndIndexRange);
-                int querySize = queryEndGlobalIndex - queryStartGlobalIndex + 1;
-                platformsToQuery.add(new PlatformQueryInfo(platformId, 1, 50)); // PageNum is always 1 for the platform query
-            }
-            previousCumulativeSize = cumulativeSize;
+        PaginationPlanner.PagePlan plan = PLANNER.plan(pageNum, pageSize);
+        if (plan == null) {
+            return platformsToQuery;
         }
+        plan.forEachTask((platformIndex, platformPage, startOffset, count, targetOffset) ->
+                platformsToQuery.add(new PlatformQueryInfo(PLANNER.getPlatform(platformIndex), (int) platformPage,
+                        count, startOffset)));
         return platformsToQuery;
     }
 
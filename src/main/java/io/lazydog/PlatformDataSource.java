@@ -0,0 +1,20 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 单个平台的数据查询接口，聚合时可能从多个线程同时调用，实现需要线程安全。
+ * 被取消的查询所在线程会被中断，实现应尽快以 {@link java.io.InterruptedIOException} 结束。
+ */
+@FunctionalInterface
+public interface PlatformDataSource {
+
+    /**
+     * @param platform 平台名称
+     * @param offset   平台内的偏移量，从 0 开始
+     * @param limit    查询数量
+     * @return 查到的数据，按平台内的顺序
+     */
+    List<String> fetch(String platform, long offset, int limit) throws IOException;
+}
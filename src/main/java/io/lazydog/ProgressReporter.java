@@ -0,0 +1,116 @@
+package io.lazydog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进度合并器：复制循环每次读写都调用 {@link #add(int)}，但只有距上次回调超过最小间隔、
+ * 且百分比前进了足够多 (或已超过心跳间隔) 时才回调一次 {@link ProgressSnapshot}，
+ * 避免在 EDT 上产生大量事件。多个分段线程可以同时调用。
+ */
+class ProgressReporter {
+
+    static final long DEFAULT_MIN_INTERVAL_MILLIS = 200;
+    static final int DEFAULT_MIN_PERCENT_DELTA = 1;
+
+    /**
+     * 百分比不变时，最多隔这么久也要回调一次，让速度和剩余时间保持更新
+     */
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 速度平滑的时间常数，越大越平稳、反应越慢
+     */
+    private static final double SMOOTHING_SECONDS = 3.0;
+
+    private final ProgressCallback callback;
+    private final long totalBytes;
+    private final long minIntervalNanos;
+    private final int minPercentDelta;
+    private final AtomicLong downloaded;
+    private final AtomicLong lastEmitNanos;
+
+    private volatile int lastPercent = -1;
+
+    // 以下字段只在 synchronized 的 emit 中读写
+    private long lastEmitBytes;
+    private double bytesPerSecond;
+
+    ProgressReporter(ProgressCallback callback, long totalBytes, long initialBytes) {
+        this(callback, totalBytes, initialBytes, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MIN_PERCENT_DELTA);
+    }
+
+    /**
+     * @param totalBytes        总字节数，未知时为 -1
+     * @param initialBytes      续传时已完成的字节数，计入进度但不计入速度
+     * @param minIntervalMillis 两次回调的最小间隔
+     * @param minPercentDelta   触发回调所需的最小百分比变化
+     */
+    ProgressReporter(ProgressCallback callback, long totalBytes, long initialBytes,
+                     long minIntervalMillis, int minPercentDelta) {
+        this.callback = callback;
+        this.totalBytes = totalBytes;
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        this.minPercentDelta = minPercentDelta;
+        this.downloaded = new AtomicLong(initialBytes);
+        this.lastEmitNanos = new AtomicLong(System.nanoTime());
+        this.lastEmitBytes = initialBytes;
+    }
+
+    /**
+     * 记录新写入的字节，必要时回调进度
+     */
+    void add(int bytes) {
+        long current = downloaded.addAndGet(bytes);
+        long now = System.nanoTime();
+        long last = lastEmitNanos.get();
+        long elapsed = now - last;
+        if (elapsed < minIntervalNanos) {
+            return;
+        }
+        if (elapsed < HEARTBEAT_NANOS && percentOf(current) - lastPercent < minPercentDelta) {
+            return;
+        }
+        // 只让一个线程去回调，其余线程直接返回
+        if (lastEmitNanos.compareAndSet(last, now)) {
+            emit(elapsed);
+        }
+    }
+
+    /**
+     * 下载结束时调用，无论间隔多短都回调最终进度
+     */
+    void finish() {
+        long now = System.nanoTime();
+        long last = lastEmitNanos.getAndSet(now);
+        emit(now - last);
+    }
+
+    long getDownloadedBytes() {
+        return downloaded.get();
+    }
+
+    private synchronized void emit(long elapsedNanos) {
+        long current = downloaded.get();
+        double seconds = elapsedNanos / 1e9;
+        if (seconds > 0) {
+            double instant = (current - lastEmitBytes) / seconds;
+            // 按时间加权的指数平滑：间隔越长，新样本权重越大
+            double alpha = 1 - Math.exp(-seconds / SMOOTHING_SECONDS);
+            bytesPerSecond = bytesPerSecond == 0 ? instant : bytesPerSecond + alpha * (instant - bytesPerSecond);
+        }
+        lastEmitBytes = current;
+
+        long eta = -1;
+        if (totalBytes > 0 && bytesPerSecond > 0) {
+            eta = (long) Math.ceil((totalBytes - current) / bytesPerSecond);
+        }
+        ProgressSnapshot snapshot = new ProgressSnapshot(current, totalBytes, bytesPerSecond, eta);
+        lastPercent = snapshot.getPercent();
+        callback.update(snapshot);
+    }
+
+    private int percentOf(long bytes) {
+        return totalBytes > 0 ? (int) (bytes * 100 / totalBytes) : 0;
+    }
+}
@@ -0,0 +1,64 @@
+package io.lazydog;
+
+/**
+ * 某一时刻的下载进度快照：已下载字节、总字节、平滑后的速度和预计剩余时间
+ */
+public final class ProgressSnapshot {
+    private final long downloadedBytes;
+    private final long totalBytes;
+    private final double bytesPerSecond;
+    private final long etaSeconds;
+
+    public ProgressSnapshot(long downloadedBytes, long totalBytes, double bytesPerSecond, long etaSeconds) {
+        this.downloadedBytes = downloadedBytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.etaSeconds = etaSeconds;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /**
+     * @return 总字节数，未知时为 -1
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return 0~100 的百分比，总大小未知时为 0
+     */
+    public int getPercent() {
+        if (totalBytes <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, downloadedBytes * 100 / totalBytes);
+    }
+
+    /**
+     * @return 指数平滑后的下载速度
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return 预计剩余秒数，无法估计时为 -1
+     */
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getPercent()).append("% ")
+                .append(String.format("%.1f MB/s", bytesPerSecond / 1024 / 1024));
+        if (etaSeconds >= 0) {
+            sb.append(String.format(" 剩余 %02d:%02d", etaSeconds / 60, etaSeconds % 60));
+        }
+        return sb.toString();
+    }
+}
@@ -72,65 +72,22 @@ public class QueryRangeDemo {
      * @return 若页码超出总记录范围则返回 null，否则返回 QueryRange 对象
      */
     public static QueryRange getQueryRange(int pageNumber, int pageSize, LinkedHashMap<String, Integer> platformCounts) {
-        // 计算所有平台总记录数
-        int total = 0;
-        for (Integer count : platformCounts.values()) {
-            total += count;
-        }
-        // 计算全局起始和结束下标（全局下标从0开始）
-        int startIndex = (pageNumber - 1) * pageSize;
-        int endIndex = startIndex + pageSize - 1;
-        if (startIndex >= total) {
+        PaginationPlanner planner = PaginationPlanner.of(platformCounts, PLATFORM_PAGE_SIZE);
+        PaginationPlanner.PagePlan plan = planner.plan(pageNumber, pageSize);
+        if (plan == null) {
             return null;
         }
-        if (endIndex >= total) {
-            endIndex = total - 1;
-        }
 
         QueryRange qr = new QueryRange();
-
-        // 先遍历一次，确定全局 startPlatform/startOffset 和 endPlatform/endOffset
-        int cumulative = 0;
-        for (Map.Entry<String, Integer> entry : platformCounts.entrySet()) {
-            String platform = entry.getKey();
-            int count = entry.getValue();
-            int platformStart = cumulative;
-            int platformEnd = cumulative + count - 1;
-
-            // 如果全局 startIndex落在该平台
-            if (startIndex >= platformStart && startIndex <= platformEnd && qr.startPlatform == null) {
-                qr.startPlatform = platform;
-                qr.startOffset = startIndex - platformStart;
-            }
-            // 如果全局 endIndex落在该平台
-            if (endIndex >= platformStart && endIndex <= platformEnd) {
-                qr.endPlatform = platform;
-                qr.endOffset = endIndex - platformStart;
-            }
-            cumulative += count;
-        }
-
-        // 再次遍历，针对每个平台计算是否与全局查询区间有交集，并生成对应的查询任务列表
-        cumulative = 0;
-        for (Map.Entry<String, Integer> entry : platformCounts.entrySet()) {
-            String platform = entry.getKey();
-            int count = entry.getValue();
-            int platformGlobalStart = cumulative;
-            int platformGlobalEnd = cumulative + count - 1;
-
-            // 判断该平台是否与全局查询区间 [startIndex, endIndex] 有交集
-            if (platformGlobalEnd >= startIndex && platformGlobalStart <= endIndex) {
-                // 加入涉及平台列表
-                qr.platforms.add(platform);
-                // 计算该平台内所需的局部查询范围
-                int localStart = (startIndex > platformGlobalStart) ? startIndex - platformGlobalStart : 0;
-                int localEnd = (endIndex < platformGlobalEnd) ? endIndex - platformGlobalStart : count - 1;
-                // 生成查询任务列表（可能跨越多个平台内部分页）
-                List<QueryTask> tasks = generatePlatformQueryTasks(localStart, localEnd, PLATFORM_PAGE_SIZE);
-                qr.platformTasks.put(platform, tasks);
-            }
-            cumulative += count;
-        }
+        // 各平台数据量都是 int，平台内偏移不会超出 int
+        qr.startPlatform = plan.getStartPlatform();
+        qr.startOffset = (int) plan.getStartOffset();
+        qr.endPlatform = plan.getEndPlatform();
+        qr.endOffset = (int) plan.getEndOffset();
+        qr.platforms.addAll(plan.platforms());
+        plan.forEachTask((platformIndex, pageNum, startOffset, count, targetOffset) ->
+                qr.platformTasks.computeIfAbsent(planner.getPlatform(platformIndex), k -> new ArrayList<>())
+                        .add(new QueryTask((int) pageNum, count, startOffset)));
         return qr;
     }
 
@@ -151,32 +108,9 @@ public class QueryRangeDemo {
      */
     public static List<QueryTask> generatePlatformQueryTasks(int localStart, int localEnd, int platformPageSize) {
         List<QueryTask> tasks = new ArrayList<>();
-        // 计算起始和结束的本地页号（页号从1开始）
-        int startPage = localStart / platformPageSize + 1;
-        int endPage = localEnd / platformPageSize + 1;
-        for (int page = startPage; page <= endPage; page++) {
-            int pageStartGlobal = (page - 1) * platformPageSize; // 该页在平台内的全局起始下标
-            int queryStart; // 本次查询在该页中的起始偏移
-            int queryCount; // 本次查询需要的记录数
-            if (page == startPage) {
-                queryStart = localStart % platformPageSize;
-                if (startPage == endPage) {
-                    // 同一页覆盖整个查询区间
-                    queryCount = localEnd - localStart + 1;
-                } else {
-                    // 第一页，从 queryStart 到该页末尾
-                    queryCount = platformPageSize - queryStart;
-                }
-            } else if (page == endPage) {
-                queryStart = 0;
-                queryCount = (localEnd % platformPageSize) + 1;
-            } else {
-                // 中间页，全部获取该页
-                queryStart = 0;
-                queryCount = platformPageSize;
-            }
-            tasks.add(new QueryTask(page, queryCount, queryStart));
-        }
+        PaginationPlanner.splitPages(0, localStart, localEnd, platformPageSize, 0,
+                (platformIndex, pageNum, startOffset, count, targetOffset) ->
+                        tasks.add(new QueryTask((int) pageNum, count, startOffset)));
         return tasks;
     }
 
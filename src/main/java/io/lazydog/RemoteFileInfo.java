@@ -0,0 +1,95 @@
+package io.lazydog;
+
+import java.util.function.Function;
+
+/**
+ * 下载前探测到的远程文件信息 (来自 HEAD 响应头)
+ */
+class RemoteFileInfo {
+    private final long contentLength;
+    private final boolean rangeSupported;
+    private final String etag;
+    private final String lastModified;
+    private final String contentType;
+    private final String contentMd5;
+
+    public RemoteFileInfo(long contentLength, boolean rangeSupported, String etag, String lastModified,
+                          String contentType) {
+        this(contentLength, rangeSupported, etag, lastModified, contentType, null);
+    }
+
+    public RemoteFileInfo(long contentLength, boolean rangeSupported, String etag, String lastModified,
+                          String contentType, String contentMd5) {
+        this.contentLength = contentLength;
+        this.rangeSupported = rangeSupported;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.contentMd5 = contentMd5;
+    }
+
+    /**
+     * 从 HEAD 响应头解析，各传输引擎共用
+     * @param headers 按名字取响应头的值，不存在时返回 null
+     */
+    static RemoteFileInfo fromHeaders(Function<String, String> headers) {
+        long contentLength = -1;
+        String length = headers.apply("Content-Length");
+        if (length != null) {
+            try {
+                contentLength = Long.parseLong(length.trim());
+            } catch (NumberFormatException ignored) {
+                // 非法的 Content-Length 按未知处理
+            }
+        }
+        String acceptRanges = headers.apply("Accept-Ranges");
+        boolean rangeSupported = acceptRanges != null && acceptRanges.trim().equalsIgnoreCase("bytes");
+        return new RemoteFileInfo(contentLength, rangeSupported, headers.apply("ETag"),
+                headers.apply("Last-Modified"), headers.apply("Content-Type"), headers.apply("Content-MD5"));
+    }
+
+    /**
+     * @return 文件大小，未知时为 -1
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return 服务器是否声明了 Accept-Ranges: bytes
+     */
+    public boolean isRangeSupported() {
+        return rangeSupported;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return Content-MD5 响应头 (base64)，没有时为 null
+     */
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteFileInfo{" +
+                "contentLength=" + contentLength +
+                ", rangeSupported=" + rangeSupported +
+                ", etag='" + etag + '\'' +
+                ", lastModified='" + lastModified + '\'' +
+                ", contentType='" + contentType + '\'' +
+                ", contentMd5='" + contentMd5 + '\'' +
+                '}';
+    }
+}
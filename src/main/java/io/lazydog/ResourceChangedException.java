@@ -0,0 +1,12 @@
+package io.lazydog;
+
+import java.io.IOException;
+
+/**
+ * If-Range 校验失败：服务器上的文件与断点续传日志记录的版本不同
+ */
+class ResourceChangedException extends IOException {
+    ResourceChangedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,91 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 失败传输的重试策略：指数退避加随机抖动，避免大量分段在同一时刻一起重连。
+ * 第 n 次重试前等待 [cap / 2, cap) 之间的随机时间，cap = min(maxDelay, baseDelay * 2^(n-1))。
+ */
+final class RetryPolicy {
+
+    static final RetryPolicy DEFAULT = new RetryPolicy(5, 500, 15_000);
+
+    static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxRetries 最多重试次数，0 表示不重试
+     */
+    RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param retry 第几次重试，从 1 开始
+     */
+    long backoffMillis(int retry) {
+        long cap = baseDelayMillis << Math.min(retry - 1, 30);
+        if (cap <= 0 || cap > maxDelayMillis) {
+            cap = maxDelayMillis;
+        }
+        if (cap == 0) {
+            return 0;
+        }
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap - cap / 2);
+    }
+
+    /**
+     * 第 retry 次重试前是否还允许重试，以及这个错误是否值得重试。
+     * 内容校验失败、文件已变化、主动取消都不是重连能解决的；
+     * 4xx 状态码说明请求本身有问题，只有 408 (请求超时) 和 429 (限流) 值得稍后再试
+     */
+    boolean shouldRetry(Throwable error, int retry) {
+        if (retry > maxRetries || !(error instanceof IOException)) {
+            return false;
+        }
+        if (error instanceof StallException) {
+            return true;
+        }
+        if (error instanceof HttpStatusException) {
+            int status = ((HttpStatusException) error).getStatusCode();
+            return status / 100 != 4 || status == 408 || status == 429;
+        }
+        return !(error instanceof IntegrityException
+                || error instanceof ResourceChangedException
+                || error instanceof InterruptedIOException);
+    }
+
+    /**
+     * 在当前线程上等待退避时间
+     */
+    void sleep(int retry) throws InterruptedIOException {
+        try {
+            Thread.sleep(backoffMillis(retry));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("重试等待被中断");
+        }
+    }
+}
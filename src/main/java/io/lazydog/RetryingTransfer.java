@@ -0,0 +1,259 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个分段的可靠传输：连接出错、提前结束或卡住时，按 {@link RetryPolicy} 退避后从已写到的位置继续请求剩余部分。
+ * <p>
+ * 开启对冲时，第一次检测到卡顿不立即中止，而是对剩余部分再发一个请求，两个请求谁先写完整段就用谁，另一个取消；
+ * 原请求如果在下一个窗口仍然卡住再中止。两个请求写的是同一份内容的相同偏移，
+ * 下游监听器只看到连续前沿的推进，不会重复计数。
+ * <p>
+ * 每个请求收到的数据都按下载分到的带宽限速，限速等待不计入卡顿检测。
+ */
+final class RetryingTransfer {
+
+    /**
+     * 剩余部分小于这个值时不再对冲，直接等重试
+     */
+    private static final long MIN_HEDGE_BYTES = 1024 * 1024;
+
+    private final TransferEngine engine;
+    private final String url;
+    private final Path outputPath;
+    private final ByteRange range;
+    private final String validator;
+    private final TransferEngine.TransferListener listener;
+    private final ProgressCallback callback;
+    private final RetryPolicy policy;
+    private final StallDetector detector;
+    private final BandwidthScheduler.Share share;
+    private final boolean hedging;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    // 回调大多在虚拟线程上，用 ReentrantLock 避免持锁等待时钉住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 以下字段在持有 lock 时读写
+    private final List<Attempt> attempts = new ArrayList<>();
+    private long front;
+    private int retries;
+    private boolean hedged;
+
+    RetryingTransfer(TransferEngine engine, TransferRequest request, TransferEngine.TransferListener listener,
+                     ProgressCallback callback, RetryPolicy policy, StallDetector detector,
+                     BandwidthScheduler.Share share, boolean hedging) {
+        this.engine = engine;
+        this.url = request.getUrl();
+        this.outputPath = request.getOutputPath();
+        this.range = request.getRange();
+        this.validator = request.getIfRange();
+        this.listener = listener;
+        this.callback = callback;
+        this.policy = policy;
+        this.detector = detector;
+        this.share = share;
+        this.hedging = hedging;
+        this.front = range.getStart();
+    }
+
+    /**
+     * @return 完成时的值是写到的位置 (不含)，即 range.getEnd() + 1；cancel 会中止所有进行中的请求
+     */
+    CompletableFuture<Long> start() {
+        result.whenComplete((end, error) -> {
+            if (result.isCancelled()) {
+                cancelAttempts();
+            }
+        });
+        launch();
+        return result;
+    }
+
+    private void launch() {
+        lock.lock();
+        try {
+            if (result.isDone()) {
+                return;
+            }
+            Attempt attempt = new Attempt();
+            attempts.add(attempt);
+            ByteRange remaining = new ByteRange(front, range.getEnd());
+            CompletableFuture<Long> future = engine.transfer(
+                    new TransferRequest(url, outputPath, remaining, validator), attempt);
+            attempt.future = future;
+            future.whenComplete((end, error) -> finished(attempt, error));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 某个请求写入了 [position - bytes, position)，只把超出当前前沿的部分交给下游
+     */
+    private void advance(long position) throws IOException {
+        lock.lock();
+        try {
+            if (position > front) {
+                int bytes = (int) (position - front);
+                front = position;
+                listener.onWritten(position, bytes);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 检测线程回调。取消放在锁外：引擎在取消时可能同步回调监听器，而监听器的写入回调要拿这把锁
+     */
+    private void stalled(Attempt attempt) {
+        lock.lock();
+        try {
+            if (result.isDone() || attempt.future == null || attempt.future.isDone()) {
+                return;
+            }
+            long remaining = range.getEnd() + 1 - front;
+            if (hedging && !hedged && attempts.size() == 1 && remaining >= MIN_HEDGE_BYTES) {
+                hedged = true;
+                DownloadMetrics.HEDGES.increment();
+                callback.log("分段 " + range + " 传输缓慢，对剩余 " + remaining + " bytes 发出对冲请求");
+                launch();
+                return;
+            }
+            attempt.stalled = true;
+        } finally {
+            lock.unlock();
+        }
+        attempt.future.cancel(true);
+    }
+
+    private void finished(Attempt attempt, Throwable error) {
+        attempt.close();
+        lock.lock();
+        try {
+            attempts.remove(attempt);
+            if (result.isDone()) {
+                return;
+            }
+            if (front != range.getEnd() + 1) {
+                if (attempts.isEmpty()) {
+                    retryOrFail(attempt, error);
+                }
+                // 否则对冲的另一个请求还在进行，由它决定结果
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 整段已经写完 (可能是另一个请求写的)，取消落后的请求
+        cancelAttempts();
+        result.complete(range.getEnd() + 1);
+    }
+
+    /**
+     * 调用方持有 lock
+     */
+    private void retryOrFail(Attempt attempt, Throwable error) {
+        Throwable cause = unwrap(error);
+        if (attempt.stalled) {
+            cause = new StallException("分段 " + range + " 在 "
+                    + TimeUnit.NANOSECONDS.toMillis(detector.getWindowNanos()) + " ms 内几乎没有收到数据");
+        } else if (cause == null) {
+            cause = new IOException("分段 " + range + " 数据不完整: 写到 " + front);
+        }
+        retries++;
+        if (!policy.shouldRetry(cause, retries)) {
+            result.completeExceptionally(cause);
+            return;
+        }
+        hedged = false;
+        long delay = policy.backoffMillis(retries);
+        DownloadMetrics.retry(url, String.valueOf(cause.getMessage()));
+        callback.log("分段 " + range + " 失败 (" + cause.getMessage() + ")，" + delay + " ms 后从 " + front
+                + " 处第 " + retries + " 次重试");
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(this::launch);
+    }
+
+    private void cancelAttempts() {
+        List<Attempt> running;
+        lock.lock();
+        try {
+            running = new ArrayList<>(attempts);
+        } finally {
+            lock.unlock();
+        }
+        for (Attempt attempt : running) {
+            if (attempt.future != null) {
+                attempt.future.cancel(true);
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        if (error instanceof CancellationException) {
+            return null;
+        }
+        return error;
+    }
+
+    /**
+     * 一次请求。摘要计算按位置去重，重复的数据直接转发；写入进度经过前沿过滤。
+     * 请求真正发出时才开始卡顿检测，在引擎里排队的时间不算
+     */
+    private final class Attempt implements TransferEngine.TransferListener {
+        private volatile StallDetector.Watch watch;
+        private volatile CompletableFuture<Long> future;
+        private volatile boolean stalled;
+        private volatile boolean closed;
+
+        @Override
+        public void onStart() {
+            StallDetector.Watch started = detector.watch(() -> stalled(this));
+            watch = started;
+            // 和 close 交叉执行时，至少有一方能看到对方的写入
+            if (closed) {
+                started.close();
+            }
+        }
+
+        void close() {
+            closed = true;
+            StallDetector.Watch started = watch;
+            if (started != null) {
+                started.close();
+            }
+        }
+
+        @Override
+        public void onResponse(long contentLength) throws IOException {
+            listener.onResponse(contentLength);
+        }
+
+        @Override
+        public void onData(long position, ByteBuffer data) {
+            listener.onData(position, data);
+        }
+
+        @Override
+        public void onWritten(long position, int bytes) throws IOException {
+            StallDetector.Watch started = watch;
+            started.add(bytes);
+            advance(position);
+            // 对冲的两个请求都占用带宽，各自计费
+            started.throttle(share, bytes);
+        }
+    }
+}
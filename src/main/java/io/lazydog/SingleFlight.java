@@ -0,0 +1,76 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 合并相同 key 的并发调用：同一时刻每个 key 只有一个调用在执行，
+ * 其余调用者等待并共享它的结果 (或异常)。调用结束后 key 立即释放，结果不做缓存。
+ */
+final class SingleFlight<K, V> {
+
+    interface Call<V> {
+        V call() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 执行 call，若相同 key 的调用正在进行，则等待那个调用的结果
+     */
+    V execute(K key, Call<V> call) throws IOException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 等待的是副本，等待方被中断时不会取消别人共享的结果
+            return await(existing.copy());
+        }
+        try {
+            V value = call.call();
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 等待共享的结果，执行方抛出的异常原样抛给等待方
+     */
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("合并的调用失败", cause);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("合并的调用被取消");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待合并的调用时被中断");
+        }
+    }
+
+    /**
+     * @return key 是否有正在进行的调用
+     */
+    boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+}
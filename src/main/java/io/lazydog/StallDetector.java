@@ -0,0 +1,138 @@
+package io.lazydog;
+
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡顿检测：连接没有断开、但数据几乎不再到达时，阻塞读会一直等下去。
+ * 每个传输登记一个 {@link Watch}，在收到数据时累加字节数；一个后台线程定期检查，
+ * 某个传输在一整个窗口内收到的数据低于 minBytesPerSecond * window 时回调一次 onStall，
+ * 然后开始新的窗口。等待首字节的时间也计入窗口。
+ */
+final class StallDetector {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stall-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 10 秒内平均不到 8 KB/s 视为卡住
+     */
+    static final StallDetector DEFAULT = new StallDetector(8 * 1024, TimeUnit.SECONDS.toNanos(10));
+
+    private final long minBytesPerSecond;
+    private final long windowNanos;
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+    StallDetector(long minBytesPerSecond, long windowNanos) {
+        if (minBytesPerSecond < 0 || windowNanos <= 0) {
+            throw new IllegalArgumentException("Invalid stall threshold");
+        }
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.windowNanos = windowNanos;
+        // 检查间隔取窗口的四分之一，卡顿最晚在 1.25 个窗口后被发现
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), windowNanos / 4);
+        SCHEDULER.scheduleAtFixedRate(this::check, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    /**
+     * 开始监视一个传输，结束时必须 close
+     */
+    Watch watch(Runnable onStall) {
+        Watch watch = new Watch(onStall);
+        watches.add(watch);
+        return watch;
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Watch watch : watches) {
+            // 限速等待是主动停下来的，不算进窗口，包括还没结束的那次等待
+            long throttled = watch.throttledNanos(now);
+            long elapsed = now - watch.windowStartNanos - (throttled - watch.windowStartThrottled);
+            if (elapsed < windowNanos) {
+                continue;
+            }
+            long received = watch.bytes - watch.windowStartBytes;
+            watch.windowStartNanos = now;
+            watch.windowStartBytes = watch.bytes;
+            watch.windowStartThrottled = throttled;
+            if (received * 1_000_000_000.0 / elapsed < minBytesPerSecond) {
+                try {
+                    watch.onStall.run();
+                } catch (RuntimeException ignored) {
+                    // 回调出错不能让检测线程退出
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个传输的计数。add 和 throttle 只由该传输的回调调用，不会并发
+     */
+    final class Watch implements AutoCloseable {
+        private final Runnable onStall;
+        private volatile long bytes;
+        // 以下两个字段在持有 Watch 的锁时读写：已结束的限速等待总时长，正在等待时等待开始的时刻
+        private long throttledNanos;
+        private long throttleStartNanos;
+        private boolean throttling;
+        // 以下字段只在检测线程上访问
+        private long windowStartNanos = System.nanoTime();
+        private long windowStartBytes;
+        private long windowStartThrottled;
+
+        private Watch(Runnable onStall) {
+            this.onStall = onStall;
+        }
+
+        void add(long received) {
+            bytes += received;
+        }
+
+        /**
+         * 按 share 分到的带宽为刚收到的 bytes 字节等待。等待期间检测线程知道传输正在限速，
+         * 一次等待比窗口还长也不会被当成卡住
+         */
+        void throttle(BandwidthScheduler.Share share, int bytes) throws InterruptedIOException {
+            if (share.getRate() <= 0) {
+                // 不限速时 acquire 不会等待，不必加锁记时
+                return;
+            }
+            synchronized (this) {
+                throttleStartNanos = System.nanoTime();
+                throttling = true;
+            }
+            try {
+                share.acquire(bytes);
+            } finally {
+                synchronized (this) {
+                    throttledNanos += System.nanoTime() - throttleStartNanos;
+                    throttling = false;
+                }
+            }
+        }
+
+        /**
+         * @return 到 now 为止因限速等待的总时长
+         */
+        private synchronized long throttledNanos(long now) {
+            return throttling ? throttledNanos + Math.max(0, now - throttleStartNanos) : throttledNanos;
+        }
+
+        @Override
+        public void close() {
+            watches.remove(this);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package io.lazydog;
+
+import java.io.IOException;
+
+/**
+ * 传输卡住：连接还开着，但一个检测窗口内收到的数据低于阈值，请求已被中止
+ */
+class StallException extends IOException {
+    StallException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,125 @@
+package io.lazydog;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 本地合成数据 HTTP 服务器 (基于 JDK 自带的 com.sun.net.httpserver)，用于测量下载吞吐。
+ * GET /payload/{size} 返回 size 字节的确定性数据，可选支持 Range，可注入响应延迟。
+ */
+public class SyntheticHttpServer implements Closeable {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final byte[] BLOCK = new byte[BLOCK_SIZE];
+    static {
+        new Random(42).nextBytes(BLOCK);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final boolean rangeSupported;
+    private final long latencyMillis;
+
+    /**
+     * @param rangeSupported 是否支持 Range 请求
+     * @param latencyMillis  每个响应发送前的延迟 (毫秒)
+     */
+    public SyntheticHttpServer(boolean rangeSupported, long latencyMillis) throws IOException {
+        this.rangeSupported = rangeSupported;
+        this.latencyMillis = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/payload/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return 返回 size 字节数据的 URL
+     */
+    public String urlFor(long size) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/payload/" + size;
+    }
+
+    /**
+     * @return 合成数据在 position 处的字节，用于校验下载结果
+     */
+    public static byte valueAt(long position) {
+        return BLOCK[(int) (position % BLOCK_SIZE)];
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            long size;
+            try {
+                size = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            exchange.getResponseHeaders().set("ETag", "\"synthetic-" + size + "\"");
+            if (rangeSupported) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+
+            long start = 0;
+            long end = size - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (rangeSupported && range != null && range.startsWith("bytes=")) {
+                String[] bounds = range.substring("bytes=".length()).split("-", 2);
+                start = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Long.parseLong(bounds[1]));
+                }
+                if (start > end) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                status = 206;
+            }
+
+            long length = end - start + 1;
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(length));
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            OutputStream body = exchange.getResponseBody();
+            long position = start;
+            while (position <= end) {
+                int offset = (int) (position % BLOCK_SIZE);
+                int chunk = (int) Math.min(BLOCK_SIZE - offset, end - position + 1);
+                body.write(BLOCK, offset, chunk);
+                position += chunk;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,75 @@
+package io.lazydog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 传输引擎：VideoDownloader 通过它发 HTTP 请求并把响应体写到文件。
+ * 阻塞实现见 {@link ApacheTransferEngine}，异步 (HTTP/2) 实现见 {@link JdkTransferEngine}。
+ * <p>
+ * 返回的 future 被 cancel 时，引擎应中止对应的请求。
+ */
+interface TransferEngine extends Closeable {
+
+    /**
+     * 传输过程回调，可能在引擎的任意线程上调用，但同一个传输的回调不会并发
+     */
+    interface TransferListener {
+        /**
+         * 请求真正发出时调用。在这之前请求可能还在排队 (见 {@link AdaptiveTransferEngine})
+         */
+        default void onStart() {
+        }
+
+        /**
+         * 响应头到达、开始写入响应体之前调用
+         * @param contentLength 响应体长度，未知时为 -1
+         */
+        default void onResponse(long contentLength) throws IOException {
+        }
+
+        /**
+         * 每批数据写入文件之前调用，用于边下载边计算摘要。
+         * 监听器可以读取 data (移动它的 position)，引擎随后会恢复
+         * @param position data 将要写到的文件位置
+         */
+        default void onData(long position, ByteBuffer data) {
+        }
+
+        /**
+         * 每次写入文件后调用
+         * @param position 写入后的文件位置
+         * @param bytes    本次写入的字节数
+         */
+        void onWritten(long position, int bytes) throws IOException;
+    }
+
+    /**
+     * 用 HEAD 请求探测文件大小、Range 支持和校验值；HEAD 失败时返回长度未知、不支持 Range 的结果
+     */
+    default RemoteFileInfo probe(String url) throws IOException {
+        return revalidate(url, null, null);
+    }
+
+    /**
+     * 带 If-None-Match / If-Modified-Since 的条件 HEAD 请求，校验值为 null 时不带对应的请求头
+     * @return 服务器返回 304 时为 null，否则与 {@link #probe(String)} 相同
+     */
+    RemoteFileInfo revalidate(String url, String etag, String lastModified) throws IOException;
+
+    /**
+     * 下载请求的区间并写入目标文件的对应偏移处。
+     * 请求带 If-Range 而服务器返回 200 时，future 以 {@link ResourceChangedException} 失败。
+     *
+     * @return 完成时的值为写完后的文件位置
+     */
+    CompletableFuture<Long> transfer(TransferRequest request, TransferListener listener);
+
+    /**
+     * 把一个小资源 (播放列表、HLS 分片) 整个读入内存
+     */
+    CompletableFuture<byte[]> fetchBytes(URI uri);
+}
@@ -0,0 +1,120 @@
+package io.lazydog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 用同一组场景分别跑阻塞引擎和异步 HTTP/2 引擎，校验下载内容并对比吞吐和平台线程数：
+ * 单连接下载、分段下载、大量并发的小文件下载。
+ * 用法: TransferEngineDemo [大小MB] [并发数]
+ */
+public class TransferEngineDemo {
+
+    private static final ProgressCallback SILENT = new ProgressCallback() {
+        @Override
+        public void update(int progress) {
+        }
+
+        @Override
+        public void log(String message) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int concurrent = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long size = sizeMb * 1024L * 1024L;
+
+        try (SyntheticHttpServer plain = new SyntheticHttpServer(false, 0);
+             SyntheticHttpServer ranged = new SyntheticHttpServer(true, 0)) {
+            for (String name : new String[]{"apache", "jdk"}) {
+                try (TransferEngine engine = name.equals("jdk")
+                        ? new JdkTransferEngine()
+                        : ApacheTransferEngine.create(concurrent, VideoDownloader.DEFAULT_BUFFER_SIZE)) {
+                    System.out.println("== " + name + " ==");
+                    runSingle(engine, plain.urlFor(size), size);
+                    runSegmented(engine, ranged.urlFor(size), size);
+                    runConcurrent(engine, plain, concurrent);
+                }
+            }
+        }
+    }
+
+    private static void runSingle(TransferEngine engine, String url, long size) throws IOException {
+        File file = tempFile();
+        VideoDownloader downloader = new VideoDownloader(engine, 1, VideoDownloader.DEFAULT_BUFFER_SIZE);
+        long start = System.nanoTime();
+        downloader.downloadWithProgress(url, file, SILENT);
+        System.out.printf("单连接: %.0f MB/s%n", throughput(size, start));
+        verify(file, size);
+    }
+
+    private static void runSegmented(TransferEngine engine, String url, long size) throws IOException {
+        File file = tempFile();
+        VideoDownloader downloader = new VideoDownloader(engine, 4, VideoDownloader.DEFAULT_BUFFER_SIZE);
+        long start = System.nanoTime();
+        downloader.downloadWithProgress(url, file, SILENT);
+        System.out.printf("分 4 段: %.0f MB/s%n", throughput(size, start));
+        verify(file, size);
+    }
+
+    /**
+     * 同时发起大量 1 MB 的传输，观察平台线程数的峰值
+     */
+    private static void runConcurrent(TransferEngine engine, SyntheticHttpServer server, int count)
+        throws IOException {
+        long size = 1024 * 1024;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        List<File> files = new ArrayList<>();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            File file = tempFile();
+            files.add(file);
+            futures.add(engine.transfer(new TransferRequest(server.urlFor(size), file.toPath(), null, null),
+                    (position, bytes) -> {
+                    }));
+        }
+        for (CompletableFuture<Long> future : futures) {
+            VideoDownloader.await(future);
+        }
+        System.out.printf("%d 个并发传输: %.0f MB/s, 平台线程峰值 %d%n",
+                count, throughput(size * count, start), threads.getPeakThreadCount());
+        for (File file : files) {
+            verify(file, size);
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("engine", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static double throughput(long size, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return size / 1024.0 / 1024.0 / seconds;
+    }
+
+    private static void verify(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() != size) {
+                throw new IOException("文件大小不符: " + raf.length());
+            }
+            for (long position : new long[]{0, size / 3, size / 2, size - 1}) {
+                raf.seek(position);
+                if ((byte) raf.read() != SyntheticHttpServer.valueAt(position)) {
+                    throw new IOException("文件内容不符, 位置 " + position);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.lazydog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 一次传输：把 url 的某个区间 (或整个响应体) 写到 outputPath 中对应的偏移处
+ */
+final class TransferRequest {
+    private final String url;
+    private final Path outputPath;
+    private final ByteRange range;
+    private final String ifRange;
+
+    /**
+     * @param range   要请求的区间，为 null 时请求整个文件并从偏移 0 写起
+     * @param ifRange If-Range 校验值，为 null 时不带
+     */
+    TransferRequest(String url, Path outputPath, ByteRange range, String ifRange) {
+        this.url = url;
+        this.outputPath = outputPath;
+        this.range = range;
+        this.ifRange = ifRange;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Path getOutputPath() {
+        return outputPath;
+    }
+
+    public ByteRange getRange() {
+        return range;
+    }
+
+    public String getIfRange() {
+        return ifRange;
+    }
+
+    /**
+     * @return 写入的起始偏移
+     */
+    public long getStart() {
+        return range == null ? 0 : range.getStart();
+    }
+
+    /**
+     * @return 最多写到的位置 (不含)，整个文件时为 -1 表示不限
+     */
+    public long getLimit() {
+        return range == null ? -1 : range.getEnd() + 1;
+    }
+
+    /**
+     * 检查响应状态码是否符合请求
+     */
+    void checkStatus(int status) throws IOException {
+        if (ifRange != null && status == 200) {
+            throw new ResourceChangedException("请求 " + (range == null ? "" : "区间 " + range + " ")
+                    + "返回了完整内容，文件已变化");
+        }
+        if (status / 100 != 2) {
+            String what = range == null ? "请求" : "区间 " + range + " 请求";
+            throw new HttpStatusException(what + "失败，状态码: " + status, status);
+        }
+        if (range != null && status != 206) {
+            throw new IOException("区间 " + range + " 请求失败，状态码: " + status);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TransferRequest{url='" + url + "', range=" + range + '}';
+    }
+}
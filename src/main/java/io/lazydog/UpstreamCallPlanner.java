@@ -0,0 +1,190 @@
+package io.lazydog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按各平台接口的能力 ({@link PlatformCapabilities}) 把一页拆成尽量少的上游请求。
+ * <p>
+ * 固定 50 条一页地拆分时，跨越平台分页边界的一段要请求两次；平台支持 offset/limit 时一次就够，
+ * 支持自定义每页条数时可以挑一个让这段落在同一页里的页大小。请求数相同时取多取的数据最少的方案。
+ */
+public final class UpstreamCallPlanner {
+
+    private UpstreamCallPlanner() {
+    }
+
+    /**
+     * 一次上游请求：取平台内 [offset, offset + limit) 这些数据，其中从第 skip 条开始的 count 条
+     * 放到这一页的 targetOffset 处。按页码查询的平台，offset 和 limit 对应页码和每页条数
+     */
+    public static final class UpstreamCall {
+        private final String platform;
+        private final int platformIndex;
+        private final boolean paged;
+        private final long offset;
+        private final int limit;
+        private final int skip;
+        private final int count;
+        private final int targetOffset;
+
+        UpstreamCall(String platform, int platformIndex, boolean paged, long offset, int limit, int skip, int count,
+                     int targetOffset) {
+            this.platform = platform;
+            this.platformIndex = platformIndex;
+            this.paged = paged;
+            this.offset = offset;
+            this.limit = limit;
+            this.skip = skip;
+            this.count = count;
+            this.targetOffset = targetOffset;
+        }
+
+        public String getPlatform() {
+            return platform;
+        }
+
+        public int getPlatformIndex() {
+            return platformIndex;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        /**
+         * @return 按页码查询时的页码 (从 1 开始)；按 offset 查询时为 -1
+         */
+        public long getPageNum() {
+            return paged ? offset / limit + 1 : -1;
+        }
+
+        public int getSkip() {
+            return skip;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getTargetOffset() {
+            return targetOffset;
+        }
+
+        @Override
+        public String toString() {
+            return paged
+                    ? "{platform=" + platform + ", pageNum=" + getPageNum() + ", pageSize=" + limit
+                    + ", skip=" + skip + ", count=" + count + "}"
+                    : "{platform=" + platform + ", offset=" + offset + ", limit=" + limit + "}";
+        }
+    }
+
+    /**
+     * @param capabilities 各平台的能力，按平台名查询
+     * @return 这一页需要的上游请求，按全局顺序
+     */
+    public static List<UpstreamCall> plan(PaginationPlanner.PagePlan plan,
+                                          Function<String, PlatformCapabilities> capabilities) {
+        List<UpstreamCall> calls = new ArrayList<>();
+        for (int i = plan.getStartPlatformIndex(); i <= plan.getEndPlatformIndex(); i++) {
+            long localStart = plan.localStart(i);
+            if (localStart < 0) {
+                continue;
+            }
+            long localEnd = plan.localEnd(i);
+            int targetOffset = (int) (plan.getStart(i) + localStart - plan.getGlobalStart());
+            String platform = plan.getPlatform(i);
+            planPlatform(platform, i, localStart, localEnd, targetOffset, capabilities.apply(platform), calls);
+        }
+        return calls;
+    }
+
+    /**
+     * 平台内 [localStart, localEnd] 这一段需要的上游请求
+     */
+    static void planPlatform(String platform, int platformIndex, long localStart, long localEnd, int targetOffset,
+                             PlatformCapabilities capabilities, List<UpstreamCall> calls) {
+        int maxLimit = capabilities.getMaxLimit();
+        switch (capabilities.getMode()) {
+            case OFFSET:
+                for (long position = localStart; position <= localEnd; ) {
+                    int count = (int) Math.min(maxLimit, localEnd - position + 1);
+                    calls.add(new UpstreamCall(platform, platformIndex, false, position, count, 0, count,
+                            targetOffset));
+                    position += count;
+                    targetOffset += count;
+                }
+                break;
+            case PAGE:
+                addPages(platform, platformIndex, localStart, localEnd, targetOffset,
+                        bestPageSize(localStart, localEnd, maxLimit), calls);
+                break;
+            case FIXED_PAGE:
+                addPages(platform, platformIndex, localStart, localEnd, targetOffset, maxLimit, calls);
+                break;
+            default:
+                throw new IllegalStateException("Unknown mode: " + capabilities.getMode());
+        }
+    }
+
+    /**
+     * 页大小不超过 maxPageSize 时，覆盖 [localStart, localEnd] 请求数最少的页大小；请求数相同取多取的最少的
+     */
+    static int bestPageSize(long localStart, long localEnd, int maxPageSize) {
+        long length = localEnd - localStart + 1;
+        if (length <= maxPageSize) {
+            // 一次请求就够时，能做到的最小页大小就是最优的，不用再逐个比较
+            int single = smallestSinglePageSize(localStart, localEnd, maxPageSize);
+            if (single > 0) {
+                return single;
+            }
+        }
+        int best = maxPageSize;
+        long bestCalls = Long.MAX_VALUE;
+        long bestFetched = Long.MAX_VALUE;
+        for (int size = maxPageSize; size >= 1; size--) {
+            // 页越小至少需要的请求越多，超过目前最好的方案就不用再试
+            if ((length + size - 1) / size > bestCalls) {
+                break;
+            }
+            long calls = localEnd / size - localStart / size + 1;
+            long fetched = calls * size;
+            if (calls < bestCalls || (calls == bestCalls && fetched < bestFetched)) {
+                best = size;
+                bestCalls = calls;
+                bestFetched = fetched;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 让 [localStart, localEnd] 落在同一页里的最小页大小，不超过 maxPageSize 的都不行时返回 -1。
+     * 页大小为 size 时 localEnd 在第 q = localEnd / size 页 (从 0 开始)；size 变大而 q 不变时，
+     * 这一页的开头 q * size 只会后移，仍然盖不住 localStart，所以直接跳到让 q 变小的最小页大小
+     */
+    static int smallestSinglePageSize(long localStart, long localEnd, int maxPageSize) {
+        long size = localEnd - localStart + 1;
+        while (size <= maxPageSize) {
+            long page = localEnd / size;
+            if (page * size <= localStart) {
+                return (int) size;
+            }
+            size = localEnd / page + 1;
+        }
+        return -1;
+    }
+
+    private static void addPages(String platform, int platformIndex, long localStart, long localEnd,
+                                 int targetOffset, int pageSize, List<UpstreamCall> calls) {
+        PaginationPlanner.splitPages(platformIndex, localStart, localEnd, pageSize, targetOffset,
+                (index, pageNum, startOffset, count, target) -> calls.add(new UpstreamCall(platform, index, true,
+                        (pageNum - 1) * pageSize, pageSize, startOffset, count, target)));
+    }
+}
@@ -1,51 +1,554 @@
 package io.lazydog;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import java.io.*;
-import java.nio.file.Files;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 interface ProgressCallback {
     void update(int progress);
     void log(String message);
+
+    /**
+     * 合并后的进度回调，下载器只调用这个方法；默认退化为只传百分比
+     */
+    default void update(ProgressSnapshot snapshot) {
+        update(snapshot.getPercent());
+    }
 }
 
 public class VideoDownloader {
-    
-    public void downloadWithProgress(String url, File outputFile, ProgressCallback callback) 
+
+    /**
+     * 每段至少这么大才值得分段，文件太小时直接单连接下载
+     */
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * 每个分段每写入这么多字节，就在断点续传日志中记录一次进度
+     */
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    /**
+     * 默认读写缓冲区大小。原来的 4 KB 缓冲区在高速链路上每 4 KB 就要一次读写系统调用
+     */
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final TransferEngine sharedEngine;
+    private final int segmentCount;
+    private final int bufferSize;
+    private final DownloadCache cache;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    private volatile StallDetector stallDetector = StallDetector.DEFAULT;
+    private volatile boolean hedging;
+
+    public VideoDownloader() {
+        this(1);
+    }
+
+    /**
+     * @param segmentCount 并发分段数，1 表示始终使用单连接下载
+     */
+    public VideoDownloader(int segmentCount) {
+        this((TransferEngine) null, segmentCount, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param sharedClient 共享的 HTTP 客户端，由调用方负责关闭；为 null 时每次下载新建一个
+     * @param segmentCount 并发分段数，1 表示始终使用单连接下载
+     */
+    public VideoDownloader(CloseableHttpClient sharedClient, int segmentCount) {
+        this(sharedClient, segmentCount, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param sharedClient 共享的 HTTP 客户端，由调用方负责关闭；为 null 时每次下载新建一个
+     * @param segmentCount 并发分段数，1 表示始终使用单连接下载
+     * @param bufferSize   每个连接的读写缓冲区大小 (字节)
+     */
+    public VideoDownloader(CloseableHttpClient sharedClient, int segmentCount, int bufferSize) {
+        this(sharedClient == null ? null : new ApacheTransferEngine(sharedClient, bufferSize),
+                segmentCount, bufferSize);
+    }
+
+    /**
+     * @param sharedEngine 共享的传输引擎，由调用方负责关闭；为 null 时每次下载新建一个阻塞引擎
+     * @param segmentCount 并发分段数，1 表示始终使用单连接下载
+     * @param bufferSize   新建阻塞引擎时每个连接的读写缓冲区大小 (字节)
+     */
+    VideoDownloader(TransferEngine sharedEngine, int segmentCount, int bufferSize) {
+        this(sharedEngine, segmentCount, bufferSize, null);
+    }
+
+    /**
+     * @param cache 下载缓存，为 null 时不使用缓存
+     */
+    VideoDownloader(TransferEngine sharedEngine, int segmentCount, int bufferSize, DownloadCache cache) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be >= 1");
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be >= 1");
+        }
+        this.sharedEngine = sharedEngine == null ? null : InstrumentedTransferEngine.wrap(sharedEngine);
+        this.segmentCount = segmentCount;
+        this.bufferSize = bufferSize;
+        this.cache = cache;
+    }
+
+    void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    void setStallDetector(StallDetector stallDetector) {
+        this.stallDetector = stallDetector;
+    }
+
+    /**
+     * @param hedging 为 true 时，分段第一次卡住不立即中止，而是对剩余部分再发一个请求，用先完成的那个
+     */
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    /**
+     * 按默认权重参与全局带宽分配
+     *
+     * @return 文件大小和下载过程中算出的摘要
+     * @throws IntegrityException 大小或 MD5 与服务器声明的不符
+     */
+    public DownloadResult downloadWithProgress(String url, File outputFile, ProgressCallback callback)
         throws IOException {
-        
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpGet request = new HttpGet(url);
-            
-            try (CloseableHttpResponse response = client.execute(request)) {
-                HttpEntity entity = response.getEntity();
-                if (entity == null) {
-                    throw new IOException("无内容");
-                }
-                
-                long totalSize = entity.getContentLength();
-                callback.log("文件大小: " + totalSize + " bytes");
-                
-                try (InputStream inputStream = entity.getContent();
-                     OutputStream outputStream = Files.newOutputStream(outputFile.toPath())) {
-                    
-                    byte[] buffer = new byte[4096];
-                    int bytesRead;
-                    long downloaded = 0;
-                    
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        downloaded += bytesRead;
-                        
-                        int progress = (int) ((downloaded * 100) / totalSize);
-                        callback.update(progress);
+        try (BandwidthScheduler.Share share = BandwidthScheduler.GLOBAL.register(hostOf(url),
+                BandwidthScheduler.DEFAULT_WEIGHT)) {
+            return downloadWithProgress(url, outputFile, callback, share);
+        }
+    }
+
+    /**
+     * @param share 这个下载分到的带宽，由调用方登记和注销，下载过程中可以修改权重
+     */
+    DownloadResult downloadWithProgress(String url, File outputFile, ProgressCallback callback,
+                                        BandwidthScheduler.Share share) throws IOException {
+        if (sharedEngine != null) {
+            return fetch(sharedEngine, url, outputFile, callback, share);
+        }
+
+        try (TransferEngine engine = InstrumentedTransferEngine.wrap(
+                ApacheTransferEngine.create(segmentCount, bufferSize))) {
+            return fetch(engine, url, outputFile, callback, share);
+        }
+    }
+
+    private DownloadResult fetch(TransferEngine engine, String url, File outputFile, ProgressCallback callback,
+                                 BandwidthScheduler.Share share) throws IOException {
+        DownloadEvents.Download event = new DownloadEvents.Download();
+        event.begin();
+        long start = System.nanoTime();
+        DownloadResult result = null;
+        Throwable error = null;
+        try {
+            if (cache == null) {
+                result = download(engine, url, outputFile, callback, share, true);
+            } else {
+                result = cache.fetch(engine, url, outputFile, callback,
+                        () -> download(engine, url, outputFile, callback, share, true));
+            }
+            return result;
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            if (result != null) {
+                DownloadMetrics.DOWNLOADS.increment();
+                if (elapsed > 0) {
+                    DownloadMetrics.DOWNLOAD_RATE.record((long) (result.getSize() * 1e9 / elapsed));
+                }
+                callback.log(String.format("耗时 %.1f 秒, 平均 %.1f MB/s", elapsed / 1e9,
+                        result.getSize() / 1024.0 / 1024.0 / (elapsed / 1e9)));
+            } else {
+                DownloadMetrics.DOWNLOADS_FAILED.increment();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.url = url;
+                event.bytes = result == null ? 0 : result.getSize();
+                event.succeeded = result != null;
+                event.error = error == null ? null : String.valueOf(error.getMessage());
+                event.commit();
+            }
+        }
+    }
+
+    private DownloadResult download(TransferEngine engine, String url, File outputFile, ProgressCallback callback,
+                                    BandwidthScheduler.Share share, boolean allowResume) throws IOException {
+        RemoteFileInfo info = engine.probe(url);
+        if (HlsDownloader.isPlaylist(url, info.getContentType())) {
+            HlsDownloader hls = new HlsDownloader(engine, Math.max(2, segmentCount), share);
+            URI playlistUri = URI.create(url);
+            String playlist = hls.fetchText(playlistUri);
+            if (HlsPlaylist.looksLikePlaylist(playlist)) {
+                return hls.download(playlistUri, playlist, outputFile, callback);
+            }
+        }
+        if (!info.isRangeSupported() || info.getContentLength() <= 0) {
+            callback.log("服务器不支持 Range 请求，使用单连接下载");
+            return downloadSingle(engine, url, info, outputFile, callback, share);
+        }
+        return downloadRanged(engine, url, info, outputFile, callback, share, allowResume);
+    }
+
+    /**
+     * 从 URL 推出保存用的文件名：去掉查询串，HLS 播放列表的分片合并后保存为 .ts
+     */
+    static String fileNameFromUrl(String url) {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.isEmpty()) {
+            name = "download";
+        }
+        if (name.toLowerCase().endsWith(".m3u8")) {
+            name = name.substring(0, name.length() - ".m3u8".length()) + ".ts";
+        }
+        return name;
+    }
+
+    /**
+     * @return URL 中的主机名 (小写)，解析不出时为空串
+     */
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    /**
+     * 不支持 Range 时无法从断点继续，失败或卡住后只能按重试策略从头再下
+     */
+    private DownloadResult downloadSingle(TransferEngine engine, String url, RemoteFileInfo info, File outputFile,
+                                          ProgressCallback callback, BandwidthScheduler.Share share)
+        throws IOException {
+        for (int retry = 1; ; retry++) {
+            try {
+                return downloadSingleOnce(engine, url, info, outputFile, callback, share);
+            } catch (IOException e) {
+                if (!retryPolicy.shouldRetry(e, retry)) {
+                    throw e;
+                }
+                DownloadMetrics.retry(url, String.valueOf(e.getMessage()));
+                callback.log("下载失败 (" + e.getMessage() + ")，第 " + retry + " 次从头重试");
+                retryPolicy.sleep(retry);
+            }
+        }
+    }
+
+    private DownloadResult downloadSingleOnce(TransferEngine engine, String url, RemoteFileInfo info,
+                                              File outputFile, ProgressCallback callback,
+                                              BandwidthScheduler.Share share) throws IOException {
+        StallDetector detector = stallDetector;
+        AtomicReference<CompletableFuture<Long>> transfer = new AtomicReference<>();
+        AtomicBoolean stalled = new AtomicBoolean();
+        // 请求真正发出时才开始卡顿检测，在引擎里排队的时间不算
+        AtomicReference<StallDetector.Watch> watch = new AtomicReference<>();
+        AtomicBoolean finished = new AtomicBoolean();
+        // 输出文件可能是缓存对象的硬链接，先断开再写
+        DownloadCache.unlink(outputFile.toPath());
+        try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ProgressReporter[] reporter = new ProgressReporter[1];
+            long[] expectedSize = {-1};
+            IntegrityVerifier verifier = IntegrityVerifier.forRemote(info);
+            TransferRequest request = new TransferRequest(url, outputFile.toPath(), null, null);
+            transfer.set(engine.transfer(request, new TransferEngine.TransferListener() {
+                @Override
+                public void onStart() {
+                    StallDetector.Watch started = detector.watch(() -> {
+                        stalled.set(true);
+                        CompletableFuture<Long> future = transfer.get();
+                        if (future != null) {
+                            future.cancel(true);
+                        }
+                    });
+                    watch.set(started);
+                    if (finished.get()) {
+                        started.close();
                     }
                 }
+
+                @Override
+                public void onResponse(long totalSize) throws IOException {
+                    callback.log("文件大小: " + totalSize + " bytes");
+                    expectedSize[0] = totalSize;
+                    preallocate(channel, totalSize);
+                    reporter[0] = new ProgressReporter(callback, totalSize, 0);
+                }
+
+                @Override
+                public void onData(long position, ByteBuffer data) {
+                    verifier.update(position, data);
+                }
+
+                @Override
+                public void onWritten(long position, int bytes) throws IOException {
+                    StallDetector.Watch started = watch.get();
+                    started.add(bytes);
+                    reporter[0].add(bytes);
+                    started.throttle(share, bytes);
+                }
+            }));
+            long end;
+            try {
+                end = await(transfer.get());
+            } catch (InterruptedIOException e) {
+                if (stalled.get()) {
+                    throw new StallException("在 " + TimeUnit.NANOSECONDS.toMillis(detector.getWindowNanos())
+                            + " ms 内几乎没有收到数据");
+                }
+                throw e;
+            } finally {
+                finished.set(true);
+                StallDetector.Watch started = watch.get();
+                if (started != null) {
+                    started.close();
+                }
             }
+            // 实际数据比声明的短时，去掉预分配出来的尾部，再由校验报告大小不符
+            channel.truncate(end);
+            DownloadResult result = verifier.verify(expectedSize[0], info.getContentMd5(), info.getEtag(), callback);
+            reporter[0].finish();
+            return result;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 已知文件大小时，先把文件扩展到最终长度，避免写入过程中文件反复增长
+     */
+    private static void preallocate(FileChannel channel, long size) throws IOException {
+        if (size > 0 && channel.size() < size) {
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        }
+    }
+
+    /**
+     * 按 Range 下载：读取断点续传日志，只请求缺失的区间；缺失区间再切成若干段交给引擎并发传输，
+     * 每段直接写到文件中对应的偏移处
+     */
+    private DownloadResult downloadRanged(TransferEngine engine, String url, RemoteFileInfo info, File outputFile,
+                                          ProgressCallback callback, BandwidthScheduler.Share share,
+                                          boolean allowResume) throws IOException {
+        long totalSize = info.getContentLength();
+        DownloadJournal journal = allowResume ? DownloadJournal.load(outputFile) : null;
+        boolean resume = journal != null && outputFile.isFile() && journal.matches(info);
+        if (resume) {
+            callback.log("发现未完成的下载，已完成 " + journal.completedBytes() + " bytes，继续下载剩余部分");
+        } else {
+            journal = DownloadJournal.create(outputFile, info);
+        }
+
+        ByteRange[] ranges = planSegments(journal.missingRanges());
+        if (ranges.length == 0) {
+            // 上次写完了最后一个字节，但还没来得及删除日志就退出了
+            callback.log("文件大小: " + totalSize + " bytes, 已全部下载，只做校验");
+        } else {
+            callback.log("文件大小: " + totalSize + " bytes, 分 " + ranges.length + " 段下载");
+        }
+
+        ProgressReporter reporter = new ProgressReporter(callback, totalSize, journal.completedBytes());
+        IntegrityVerifier verifier = IntegrityVerifier.forRemote(info);
+        DownloadResult result = null;
+        String validator = journal.getIfRangeValidator();
+        List<SegmentProgress> segments = new ArrayList<>();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        boolean completed = false;
+        boolean changed = false;
+
+        if (!resume) {
+            // 输出文件可能是缓存对象的硬链接，先断开再写
+            DownloadCache.unlink(outputFile.toPath());
+        }
+        try (FileChannel channel = resume
+                ? FileChannel.open(outputFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            preallocate(channel, totalSize);
+            // 续传时先把第一个缺失区间之前已完成的部分计入摘要，第一段就能直接在内存里计算
+            verifier.catchUp(channel, ranges.length > 0 ? ranges[0].getStart() : totalSize);
+            for (ByteRange range : ranges) {
+                SegmentProgress segment = new SegmentProgress(range, journal, reporter, verifier, channel);
+                segments.add(segment);
+                // 文件在服务器端变化时，带 If-Range 的请求会收到 200，引擎以 ResourceChangedException 失败；
+                // 断线、提前结束和卡住由 RetryingTransfer 退避后从本段已写到的位置继续
+                TransferRequest request = new TransferRequest(url, outputFile.toPath(), range, validator);
+                futures.add(new RetryingTransfer(engine, request, segment, callback, retryPolicy, stallDetector,
+                        share, hedging).start());
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                long end = await(futures.get(i));
+                if (end != ranges[i].getEnd() + 1) {
+                    throw new IOException("分段 " + ranges[i] + " 数据不完整");
+                }
+            }
+            completed = true;
+            // 前面没追上的部分 (先完成的后续分段、续传留下的区间) 从文件读回
+            verifier.catchUp(channel, totalSize);
+            if (channel.size() != totalSize) {
+                throw new IntegrityException("文件大小不符: 期望 " + totalSize + " bytes, 实际 " + channel.size() + " bytes");
+            }
+            result = verifier.verify(totalSize, info.getContentMd5(), info.getEtag(), callback);
+            reporter.finish();
+        } catch (IntegrityException e) {
+            // 内容有误，不能再从这份数据续传
+            journal.delete();
+            throw e;
+        } catch (ResourceChangedException e) {
+            // 已下载的部分作废，日志不再保留
+            changed = true;
+            if (!resume) {
+                journal.delete();
+                throw e;
+            }
+        } finally {
+            if (!completed) {
+                // 任何一段失败，整体失败，中止其余分段
+                futures.forEach(future -> future.cancel(true));
+            }
+            if (!completed && !changed) {
+                // 失败或中断时保存进度，下次从断点继续；即使失败，已写入的部分也记入日志
+                segments.forEach(SegmentProgress::markWritten);
+                saveQuietly(journal);
+            }
+        }
+        journal.delete();
+
+        if (changed) {
+            callback.log("服务器上的文件已变化，重新下载");
+            DownloadMetrics.retry(url, "服务器上的文件已变化");
+            return download(engine, url, outputFile, callback, share, false);
+        }
+        return result;
+    }
+
+    /**
+     * 把缺失区间切成不超过 segmentCount 段：反复对半切分最大的区间，直到段数够了或区间太小
+     * @return 没有缺失区间时为空数组
+     */
+    private ByteRange[] planSegments(List<ByteRange> missing) {
+        if (missing.isEmpty()) {
+            return new ByteRange[0];
+        }
+        List<ByteRange> segments = new ArrayList<>(missing);
+        while (segments.size() < segmentCount) {
+            int largest = 0;
+            for (int i = 1; i < segments.size(); i++) {
+                if (segments.get(i).length() > segments.get(largest).length()) {
+                    largest = i;
+                }
+            }
+            ByteRange range = segments.get(largest);
+            if (range.length() < MIN_SEGMENT_SIZE * 2) {
+                break;
+            }
+            ByteRange[] halves = ByteRange.split(range.length(), 2);
+            segments.set(largest, new ByteRange(range.getStart(), range.getStart() + halves[0].getEnd()));
+            segments.add(largest + 1, new ByteRange(range.getStart() + halves[1].getStart(), range.getEnd()));
+        }
+        return segments.toArray(new ByteRange[0]);
+    }
+
+    private static void saveQuietly(DownloadJournal journal) {
+        try {
+            journal.save();
+        } catch (IOException ignored) {
+            // 日志写失败只是失去续传能力，不掩盖原始异常
+        }
+    }
+
+    /**
+     * 等待引擎的 future，把包装过的异常还原成 IOException
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("传输失败", cause);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("传输被取消");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("下载被中断");
+        }
+    }
+
+    /**
+     * 单个分段的进度：汇报给进度合并器，定期记入断点续传日志，并推进摘要计算
+     */
+    private static class SegmentProgress implements TransferEngine.TransferListener {
+        private final ByteRange range;
+        private final DownloadJournal journal;
+        private final ProgressReporter reporter;
+        private final IntegrityVerifier verifier;
+        private final FileChannel channel;
+        private volatile long written;
+        private long checkpoint;
+
+        SegmentProgress(ByteRange range, DownloadJournal journal, ProgressReporter reporter,
+                        IntegrityVerifier verifier, FileChannel channel) {
+            this.range = range;
+            this.journal = journal;
+            this.reporter = reporter;
+            this.verifier = verifier;
+            this.channel = channel;
+            this.written = range.getStart();
+            this.checkpoint = range.getStart();
+        }
+
+        @Override
+        public void onData(long position, ByteBuffer data) {
+            verifier.update(position, data);
+        }
+
+        @Override
+        public void onWritten(long position, int bytes) throws IOException {
+            written = position;
+            reporter.add(bytes);
+            // 计算前沿刚进入本段已写入的部分 (前一段刚完成)：把这部分读回来，之后本段的数据就能直接在内存里计算
+            long digested = verifier.getDigested();
+            if (digested >= range.getStart() && digested < position) {
+                verifier.catchUp(channel, position);
+            }
+            if (position - checkpoint >= CHECKPOINT_BYTES) {
+                journal.markCompleted(range.getStart(), position - 1);
+                journal.saveIfDue();
+                checkpoint = position;
+            }
+        }
+
+        void markWritten() {
+            journal.markCompleted(range.getStart(), written - 1);
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package io.lazydog;
 
 import javax.swing.*;
+import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class VideoDownloaderApp {
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("网页视频下载器");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            frame.setSize(600, 400);
+            frame.setSize(800, 500);
             
             MainPanel mainPanel = new MainPanel();
             frame.add(mainPanel);
@@ -20,10 +24,17 @@ public class VideoDownloaderApp {
 }
 
 class MainPanel extends JPanel {
+    private static final int LOG_CAPACITY = 5000;
+
     private JTextField urlField;
     private JButton downloadButton;
-    private JProgressBar progressBar;
-    private JTextArea logArea;
+    private JCheckBox extractBox;
+    private JTable downloadTable;
+    private JList<String> logList;
+    private final DownloadTableModel tableModel = new DownloadTableModel();
+    private final LogListModel logModel = new LogListModel(LOG_CAPACITY, this::scrollLogToEnd);
+    private final DownloadManager downloadManager = new DownloadManager(3, 2, 4, false, new File(".download-cache"));
+    private final Map<Long, DownloadWorker> workers = new ConcurrentHashMap<>();
     
     public MainPanel() {
         setLayout(new BorderLayout(10, 10));
@@ -32,24 +43,34 @@ class MainPanel extends JPanel {
         JPanel topPanel = new JPanel(new BorderLayout());
         urlField = new JTextField();
         downloadButton = new JButton("下载");
+        extractBox = new JCheckBox("从网页提取");
+        extractBox.setToolTipText("输入的是网页地址，下载其中找到的所有视频");
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.add(extractBox);
+        buttons.add(downloadButton);
         topPanel.add(new JLabel("视频URL:"), BorderLayout.WEST);
         topPanel.add(urlField, BorderLayout.CENTER);
-        topPanel.add(downloadButton, BorderLayout.EAST);
+        topPanel.add(buttons, BorderLayout.EAST);
+        
+        // 下载列表，每个下载一行
+        downloadTable = new JTable(tableModel);
+        downloadTable.getColumnModel().getColumn(DownloadTableModel.COLUMN_PROGRESS)
+                .setCellRenderer(new ProgressCellRenderer());
         
-        // 进度条
-        progressBar = new JProgressBar(0, 100);
-        progressBar.setStringPainted(true);
+        // 日志区域：按原型值固定行高和行宽，JList 不再逐行测量，只绘制可见的行
+        logList = new JList<>(logModel);
+        logList.setPrototypeCellValue("M".repeat(120));
         
-        // 日志区域
-        logArea = new JTextArea();
-        logArea.setEditable(false);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
+                new JScrollPane(downloadTable), new JScrollPane(logList));
+        splitPane.setResizeWeight(0.5);
         
         add(topPanel, BorderLayout.NORTH);
-        add(progressBar, BorderLayout.CENTER);
-        add(new JScrollPane(logArea), BorderLayout.SOUTH);
+        add(splitPane, BorderLayout.CENTER);
         
         // 绑定下载事件
         downloadButton.addActionListener(e -> startDownload());
+        downloadManager.addListener(this::onStateChanged);
     }
     
     private void startDownload() {
@@ -58,54 +79,122 @@ class MainPanel extends JPanel {
             JOptionPane.showMessageDialog(this, "请输入视频URL");
             return;
         }
-        
-        new DownloadWorker(videoUrl).execute();
+
+        if (!extractBox.isSelected()) {
+            submit(videoUrl);
+            return;
+        }
+        // 获取和解析网页会阻塞，不能放在 EDT 上
+        logModel.append("正在解析网页: " + videoUrl);
+        Thread.startVirtualThread(() -> {
+            PageScraper.PageResult page = downloadManager.extractVideoUrls(List.of(videoUrl)).get(0);
+            if (page.getError() != null) {
+                logModel.append("解析网页失败: " + page.getError().getMessage());
+            } else if (page.getVideoUrls().isEmpty()) {
+                logModel.append("网页中没有找到视频地址");
+            } else {
+                logModel.append("网页中找到 " + page.getVideoUrls().size() + " 个视频地址");
+                page.getVideoUrls().forEach(this::submit);
+            }
+        });
     }
-    
-    private class DownloadWorker extends SwingWorker<Void, String> {
-        private final String videoUrl;
-        
+
+    /**
+     * 表格行和下载管理器都是线程安全的，可以在任意线程调用
+     */
+    private void submit(String videoUrl) {
+        DownloadWorker worker = new DownloadWorker(videoUrl);
+        DownloadManager.DownloadTask task = downloadManager.submit(videoUrl, worker.outputFile, worker);
+        workers.put(task.getId(), worker);
+    }
+
+    private void scrollLogToEnd() {
+        int last = logModel.getSize() - 1;
+        if (last >= 0) {
+            logList.ensureIndexIsVisible(last);
+        }
+    }
+
+    /**
+     * 下载管理器在下载线程上回调。表格行和日志模型本身就是线程安全的，
+     * 这里不再为每次状态变化单独排 EDT 任务
+     */
+    private void onStateChanged(DownloadManager.DownloadTask task) {
+        DownloadWorker worker = workers.get(task.getId());
+        switch (task.getState()) {
+            case QUEUED -> logModel.append("排队中: " + task.getUrl());
+            case RUNNING -> {
+                logModel.append("开始下载: " + task.getUrl());
+                if (worker != null) {
+                    worker.row.setStatus("下载中");
+                }
+            }
+            case DONE, FAILED -> {
+                workers.remove(task.getId());
+                if (worker != null) {
+                    worker.done(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个下载的界面适配器：进度写到自己的表格行，日志写到日志模型，两者都在 EDT 上批量刷新
+     */
+    private class DownloadWorker implements ProgressCallback {
+        private final File outputFile;
+        private final DownloadTableModel.Row row;
+
         public DownloadWorker(String videoUrl) {
-            this.videoUrl = videoUrl;
+            this.outputFile = new File(VideoDownloader.fileNameFromUrl(videoUrl));
+            this.row = tableModel.addRow(outputFile.getName());
         }
-        
+
         @Override
-        protected Void doInBackground() throws Exception {
-            publish("开始下载: " + videoUrl);
-            
-            File outputFile = new File(getFileNameFromUrl(videoUrl));
-            VideoDownloader downloader = new VideoDownloader();
-            downloader.downloadWithProgress(videoUrl, outputFile, 
-                new ProgressCallback() {
-                    @Override
-                    public void update(int progress) {
-                        setProgress(progress);
-                    }
-                    
-                    @Override
-                    public void log(String message) {
-                        publish(message);
-                    }
-                });
-            
-            return null;
+        public void update(int progress) {
+            row.setPercent(progress);
         }
-        
+
         @Override
-        protected void process(java.util.List<String> chunks) {
-            for (String msg : chunks) {
-                logArea.append(msg + "\n");
-            }
+        public void update(ProgressSnapshot snapshot) {
+            row.setSnapshot(snapshot);
         }
-        
+
         @Override
-        protected void done() {
-            setProgress(100);
-            logArea.append("下载完成!\n");
+        public void log(String message) {
+            logModel.append(message);
         }
-        
-        private String getFileNameFromUrl(String url) {
-            return url.substring(url.lastIndexOf('/') + 1);
+
+        private void done(DownloadManager.DownloadTask task) {
+            if (task.getState() == DownloadManager.DownloadState.DONE) {
+                row.finish("完成", 100);
+                DownloadResult result = task.getResult();
+                logModel.append("下载完成! " + result.getSize() + " bytes, SHA-256: " + result.getSha256());
+            } else if (task.getError() instanceof IntegrityException) {
+                // 校验失败的文件不能当成下载成功
+                row.finish("校验失败", 0);
+                logModel.append("校验失败: " + task.getError().getMessage());
+            } else {
+                row.finish("下载失败", 0);
+                logModel.append("下载失败: " + task.getError().getMessage());
+            }
+        }
+    }
+
+    /**
+     * 进度列画成进度条，所有行共用一个组件
+     */
+    private static class ProgressCellRenderer extends JProgressBar implements TableCellRenderer {
+        ProgressCellRenderer() {
+            super(0, 100);
+            setStringPainted(true);
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            setValue(value == null ? 0 : (Integer) value);
+            return this;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,352 @@
+package io.lazydog;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 无界面的批量下载入口，供没有显示器的服务器使用。不引用任何 AWT/Swing 类。
+ * <p>
+ * 用法: VideoDownloaderCli [-p 并发数] [--per-host 每主机并发数] [-s 分段数] [-o 输出目录] [-e apache|jdk]
+ *     [-c 缓存目录] [-m 秒] [-r 重试次数] [-H] [-b 限速] [-x] [-v] [URL列表文件|-]
+ * <p>
+ * -h/--help 打印用法后退出。-p、--per-host (默认与 -p 相同)、-s 至少为 1，-m、-r、-b 不能为负。
+ * -e jdk 使用基于 java.net.http 的异步 HTTP/2 引擎，默认是 HttpClient 4.x 的阻塞引擎。
+ * -c 启用下载缓存，未变化的 URL (服务器返回 304) 不再重新下载。
+ * -m 每隔指定秒数把下载指标 (首字节时间、速度、卡顿、写盘延迟等) 打印到标准错误，结束时再打印一次；
+ * 需要更细的时间线时用 -XX:StartFlightRecording 启动，录制 io.lazydog.* 事件。
+ * -r 分段断线、提前结束或卡住时最多重试几次 (默认 5)，每次指数退避后从断点继续；-H 卡住时先对剩余部分发对冲请求。
+ * -b 所有下载合计的速率上限，单位字节/秒，可以带 K/M/G 后缀 (如 -b 2M)，同时进行的下载平分。
+ * -x 列表中是网页地址：先并发获取并解析这些网页，找出其中的 &lt;video&gt;/&lt;source&gt;/og:video/m3u8 地址再下载，
+ * 同一视频出现在多个网页中只下载一次；没能获取的网页输出一行 "status":"failed" 的 JSON 并计入失败数。
+ * <p>
+ * URL 列表每行一个，空行和 # 开头的行忽略；不指定文件或为 "-" 时从标准输入读取。
+ * 每个下载结束后在标准输出打印一行 JSON，最后打印一行汇总；日志只在 -v 时打印到标准错误。
+ * 退出码: 0 全部成功，1 有下载失败，2 参数或输入错误。
+ */
+public class VideoDownloaderCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = "用法: VideoDownloaderCli [-p 并发数] [--per-host 每主机并发数] [-s 分段数]"
+            + " [-o 输出目录] [-e apache|jdk] [-c 缓存目录] [-m 秒] [-r 重试次数] [-H] [-b 限速] [-x] [-v]"
+            + " [URL列表文件|-]";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        int parallel = 4;
+        int perHost = -1;
+        int segments = 4;
+        File outputDir = new File(".");
+        boolean verbose = false;
+        boolean asyncEngine = false;
+        File cacheDir = null;
+        long metricsSeconds = 0;
+        int retries = RetryPolicy.DEFAULT.getMaxRetries();
+        boolean hedging = false;
+        long bandwidth = 0;
+        boolean extract = false;
+        String source = "-";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-p" -> parallel = Integer.parseInt(args[++i]);
+                    case "-h", "--help" -> {
+                        out.println(USAGE);
+                        return EXIT_OK;
+                    }
+                    case "--per-host" -> perHost = Integer.parseInt(args[++i]);
+                    case "-s" -> segments = Integer.parseInt(args[++i]);
+                    case "-o" -> outputDir = new File(args[++i]);
+                    case "-e" -> asyncEngine = parseEngine(args[++i]);
+                    case "-c" -> cacheDir = new File(args[++i]);
+                    case "-m" -> metricsSeconds = Long.parseLong(args[++i]);
+                    case "-r" -> retries = Integer.parseInt(args[++i]);
+                    case "-H" -> hedging = true;
+                    case "-b" -> bandwidth = parseRate(args[++i]);
+                    case "-x" -> extract = true;
+                    case "-v" -> verbose = true;
+                    default -> source = args[i];
+                }
+            }
+            if (perHost == -1) {
+                perHost = parallel;
+            }
+            // DownloadManager 的构造函数也会检查，但在那里失败就不是用法错误的退出码了
+            if (parallel < 1 || perHost < 1 || segments < 1) {
+                throw new IllegalArgumentException("并发数、每主机并发数和分段数都至少为 1");
+            }
+            if (retries < 0) {
+                throw new IllegalArgumentException("重试次数不能为负: " + retries);
+            }
+            if (metricsSeconds < 0) {
+                throw new IllegalArgumentException("指标输出间隔不能为负: " + metricsSeconds);
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            err.println("参数错误: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+
+        List<String> urls;
+        try {
+            urls = readUrls(source);
+        } catch (IOException e) {
+            err.println("读取 URL 列表失败: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+        if (urls.isEmpty()) {
+            err.println("URL 列表为空");
+            return EXIT_USAGE;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            err.println("无法创建输出目录: " + outputDir);
+            return EXIT_USAGE;
+        }
+
+        if (metricsSeconds <= 0) {
+            return download(urls, outputDir, parallel, perHost, segments, asyncEngine, cacheDir, retries, hedging,
+                    bandwidth, extract, verbose, out, err);
+        }
+        MetricsRegistry metrics = DownloadMetrics.registry();
+        Closeable dump = metrics.startPeriodicDump(metricsSeconds, err::print);
+        try {
+            return download(urls, outputDir, parallel, perHost, segments, asyncEngine, cacheDir, retries, hedging,
+                    bandwidth, extract, verbose, out, err);
+        } finally {
+            try {
+                dump.close();
+            } catch (IOException e) {
+                // 停止定时输出失败不影响下载结果
+                err.println("停止指标输出失败: " + e.getMessage());
+            }
+            err.print(metrics.dump());
+        }
+    }
+
+    private static boolean parseEngine(String name) {
+        return switch (name) {
+            case "jdk" -> true;
+            case "apache" -> false;
+            default -> throw new IllegalArgumentException("未知的引擎: " + name);
+        };
+    }
+
+    /**
+     * 解析 "512K"、"2M" 这样的速率，单位字节/秒
+     */
+    static long parseRate(String text) {
+        String value = text.trim().toUpperCase();
+        long unit = 1;
+        if (value.endsWith("K")) {
+            unit = 1024;
+        } else if (value.endsWith("M")) {
+            unit = 1024 * 1024;
+        } else if (value.endsWith("G")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        if (unit != 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long rate = (long) (Double.parseDouble(value) * unit);
+        if (rate < 0) {
+            throw new IllegalArgumentException("限速不能为负: " + text);
+        }
+        return rate;
+    }
+
+    private static int download(List<String> urls, File outputDir, int parallel, int perHost, int segments,
+                                boolean asyncEngine, File cacheDir, int retries, boolean hedging, long bandwidth,
+                                boolean extract, boolean verbose, PrintStream out, PrintStream err) {
+        int[] failed = {0};
+        long[] totalBytes = {0};
+        long startNanos = System.nanoTime();
+        int total = urls.size();
+
+        try (DownloadManager manager = new DownloadManager(parallel, perHost, segments, asyncEngine, cacheDir)) {
+            manager.setMaxRetries(retries);
+            manager.setHedging(hedging);
+            manager.setBandwidthLimit(bandwidth);
+            if (extract) {
+                urls = extractVideoUrls(manager, urls, failed, verbose, out, err);
+                total = urls.size() + failed[0];
+            }
+            CountDownLatch remaining = new CountDownLatch(urls.size());
+            manager.addListener(task -> {
+                if (task.getState() != DownloadManager.DownloadState.DONE
+                        && task.getState() != DownloadManager.DownloadState.FAILED) {
+                    return;
+                }
+                long bytes = task.getOutputFile().length();
+                // 多个下载线程同时结束，输出和计数需要串行
+                synchronized (out) {
+                    if (task.getState() == DownloadManager.DownloadState.FAILED) {
+                        failed[0]++;
+                    } else {
+                        totalBytes[0] += bytes;
+                    }
+                    out.println(resultJson(task, bytes));
+                    out.flush();
+                }
+                remaining.countDown();
+            });
+
+            Set<String> usedNames = new HashSet<>();
+            for (String url : urls) {
+                String name = VideoDownloader.fileNameFromUrl(url);
+                // 同一批里文件名重复时加序号，避免互相覆盖
+                String unique = name;
+                for (int n = 1; !usedNames.add(unique); n++) {
+                    unique = n + "-" + name;
+                }
+                manager.submit(url, new File(outputDir, unique), new CliCallback(url, verbose, err));
+            }
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("被中断");
+            return EXIT_FAILED;
+        } catch (IOException e) {
+            err.println("关闭下载管理器失败: " + e.getMessage());
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        out.println("{\"summary\":true"
+                + ",\"total\":" + total
+                + ",\"succeeded\":" + (total - failed[0])
+                + ",\"failed\":" + failed[0]
+                + ",\"bytes\":" + totalBytes[0]
+                + ",\"seconds\":" + String.format("%.3f", seconds)
+                + ",\"bytesPerSecond\":" + (long) (seconds > 0 ? totalBytes[0] / seconds : 0)
+                + "}");
+        out.flush();
+        return failed[0] == 0 ? EXIT_OK : EXIT_FAILED;
+    }
+
+    /**
+     * 解析网页，返回按出现顺序去重后的视频地址；获取失败的网页各输出一行 JSON 并计入 failed
+     */
+    private static List<String> extractVideoUrls(DownloadManager manager, List<String> pages, int[] failed,
+                                                 boolean verbose, PrintStream out, PrintStream err) {
+        Set<String> videoUrls = new LinkedHashSet<>();
+        for (PageScraper.PageResult page : manager.extractVideoUrls(pages)) {
+            if (page.getError() != null) {
+                failed[0]++;
+                out.println("{\"page\":" + quote(page.getPageUrl())
+                        + ",\"status\":\"failed\""
+                        + ",\"error\":" + quote(String.valueOf(page.getError().getMessage())) + "}");
+            } else if (verbose) {
+                err.println("[" + page.getPageUrl() + "] 找到 " + page.getVideoUrls().size() + " 个视频地址");
+            }
+            videoUrls.addAll(page.getVideoUrls());
+        }
+        out.flush();
+        return new ArrayList<>(videoUrls);
+    }
+
+    static List<String> readUrls(String source) throws IOException {
+        BufferedReader reader = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(source), StandardCharsets.UTF_8);
+        List<String> urls = new ArrayList<>();
+        try (reader) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    urls.add(line);
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static String resultJson(DownloadManager.DownloadTask task, long bytes) {
+        double seconds = task.getElapsedNanos() / 1e9;
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"url\":").append(quote(task.getUrl()));
+        sb.append(",\"file\":").append(quote(task.getOutputFile().getPath()));
+        if (task.getState() == DownloadManager.DownloadState.DONE) {
+            sb.append(",\"status\":\"ok\"");
+            sb.append(",\"bytes\":").append(bytes);
+            sb.append(",\"sha256\":").append(quote(task.getResult().getSha256()));
+            sb.append(",\"seconds\":").append(String.format("%.3f", seconds));
+            sb.append(",\"bytesPerSecond\":").append((long) (seconds > 0 ? bytes / seconds : 0));
+        } else {
+            sb.append(",\"status\":\"failed\"");
+            Throwable error = task.getError();
+            sb.append(",\"error\":").append(quote(error == null ? "" : String.valueOf(error.getMessage())));
+        }
+        return sb.append('}').toString();
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * 批量模式不显示进度，日志只在 verbose 时写到标准错误
+     */
+    private static class CliCallback implements ProgressCallback {
+        private final String url;
+        private final boolean verbose;
+        private final PrintStream err;
+
+        CliCallback(String url, boolean verbose, PrintStream err) {
+            this.url = url;
+            this.verbose = verbose;
+            this.err = err;
+        }
+
+        @Override
+        public void update(int progress) {
+        }
+
+        @Override
+        public void update(ProgressSnapshot snapshot) {
+        }
+
+        @Override
+        public void log(String message) {
+            if (verbose) {
+                err.println("[" + url + "] " + message);
+            }
+        }
+    }
+}